@@ -0,0 +1,167 @@
+package com.jcore.benchmark;
+
+import com.jcore.AwsDatabaseService;
+import com.jcore.AwsEc2Service;
+import com.jcore.AwsEcsService;
+import com.jcore.AwsNetworkService;
+import com.jcore.AwsPipelineService;
+import com.jcore.AwsQueueService;
+import com.jcore.model.DatabaseSettings;
+import com.jcore.model.EnvironmentProfile;
+import com.jcore.model.PipelineSettings;
+import com.jcore.model.ServiceSettings;
+import com.jcore.model.SnsSqsTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awscdk.App;
+import software.amazon.awscdk.Stack;
+import software.constructs.Construct;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Cost of the constructs of every Aws*Service, created count times in one stack. With synth the stack is also
+ * synthesized, which is where most of the time goes as the template grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ServiceConstructBenchmark {
+
+    private static final String PREFIX = "bench-";
+
+    @Param({"1", "4", "16"})
+    public int count;
+
+    @Param({"false", "true"})
+    public boolean synth;
+
+    private Path outdir;
+
+    @Setup(Level.Trial)
+    public void createOutdir() throws IOException {
+        outdir = SynthOutput.create();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteOutdir() throws IOException {
+        SynthOutput.delete(outdir);
+    }
+
+    @Benchmark
+    public Object networkService() {
+        return run(scope -> {
+            var networkService = new AwsNetworkService(scope, PREFIX);
+            var vpc = networkService.createVpc("10.0.0.0/16");
+            var subnet = networkService.createSubnet("10.0.111.0/24", vpc.getAttrVpcId(), true, "uno", "a");
+            var gateway = networkService.createInternetGatewayAndAttachToVpc(vpc.getAttrVpcId());
+            var routeTable = networkService.createRouteTable(vpc, subnet, true, "A");
+            networkService.createRoute(routeTable.getAttrRouteTableId(), gateway.getAttrInternetGatewayId(), true, "A");
+            networkService.createNatGatewayAndAttachToSubnet(subnet.getSubnetId(), "");
+        });
+    }
+
+    @Benchmark
+    public Object ec2Service() {
+        return run(scope -> {
+            var ec2Service = new AwsEc2Service(scope, PREFIX);
+            var securityGroup = ec2Service.createSecurityGroup("vpc-12345678", "default");
+            ec2Service.createLoadBalancer(List.of("subnet-1", "subnet-2"), securityGroup.getAttrGroupId(), true);
+        });
+    }
+
+    @Benchmark
+    public Object databaseService() {
+        return run(scope -> {
+            var databaseService = new AwsDatabaseService(scope, PREFIX);
+            var password = databaseService.createDatabasePassword("benchmark");
+            var databaseSettings = DatabaseSettings.builder().build();
+            var database = databaseService.createDatabaseInstance(List.of("subnet-1", "subnet-2"), "sg-12345678", "benchmark", password,
+                    databaseSettings);
+            databaseService.createConnectionStringSecret(database, password, databaseSettings);
+        });
+    }
+
+    @Benchmark
+    public Object queueService() {
+        return run(scope -> {
+            var queueService = new AwsQueueService(scope, PREFIX);
+            var queue = queueService.createQueue("benchmark-queue", 20, 30);
+            queueService.createTopic(queue.getAttrArn(), false);
+        });
+    }
+
+    @Benchmark
+    public Object ecsService() {
+        return run(scope -> {
+            var ecsService = new AwsEcsService(scope, PREFIX);
+            var connectionString = new AwsDatabaseService(scope, PREFIX).createDatabasePassword("benchmark");
+            var cluster = ecsService.createCluster(EnvironmentProfile.ContainerInsights.ENABLED);
+            var targetGroup = ecsService.createTargetGroup("vpc-12345678", "send", 80, Collections.emptyList(), 30);
+            ecsService.createService(ServiceSettings.builder()
+                    .region(Stack.of(scope).getRegion())
+                    .cluster(cluster.getAttrArn())
+                    .securityGroup("sg-12345678")
+                    .subnets(List.of("subnet-1", "subnet-2"))
+                    .port(80)
+                    .transport(new SnsSqsTransport("arn:aws:sns:eu-central-1:123456789012:benchmark", "benchmark"))
+                    .databaseUrl("localhost")
+                    .connectionString(connectionString)
+                    .username("benchmark")
+                    .password(connectionString)
+                    .targetGroup(targetGroup.getAttrTargetGroupArn())
+                    .mode("send")
+                    .containerName("benchmark")
+                    .build());
+        });
+    }
+
+    @Benchmark
+    public Object pipelineService() {
+        return run(scope -> {
+            var pipelineService = new AwsPipelineService(scope, PREFIX);
+            var repository = pipelineService.createRepository();
+            var settings = PipelineSettings.builder()
+                    .accountNr(Stack.of(scope).getAccount())
+                    .region(Stack.of(scope).getRegion())
+                    .repositoryName(repository.getRepositoryName())
+                    .clusterName("benchmark")
+                    .services(Map.of(
+                            "send", new PipelineSettings.Service("send-service", "send"),
+                            "receive", new PipelineSettings.Service("receive-service", "receive")
+                    ))
+                    .build();
+            pipelineService.createPipeline(settings);
+        });
+    }
+
+    private Object run(Consumer<Construct> constructs) {
+        App app = SynthOutput.app(outdir);
+        var stack = new Stack(app, "Benchmark");
+        for (int i = 0; i < count; i++) {
+            // a scope per copy keeps the construct ids unique
+            constructs.accept(new Construct(stack, "copy" + i));
+        }
+        return synth ? app.synth() : stack;
+    }
+}
@@ -0,0 +1,97 @@
+package com.jcore.benchmark;
+
+import com.jcore.AwsApplicationStack;
+import com.jcore.AwsCursusStack;
+import com.jcore.AwsFoundationStack;
+import com.jcore.AwsPlatformStack;
+import com.jcore.model.EnvironmentProfile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awscdk.App;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.StackProps;
+import software.amazon.awscdk.cxapi.CloudAssembly;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build the stacks the way cdk synth does, for a service catalog of services entries. Only needs node for the
+ * jsii runtime, no AWS access.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class StackSynthBenchmark {
+
+    @Param({"2", "8", "32"})
+    public int services;
+
+    private Path outdir;
+    private Map<String, Object> context;
+
+    @Setup(Level.Trial)
+    public void createOutdir() throws IOException {
+        outdir = SynthOutput.create();
+        context = Map.of("services", createCatalog(services));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteOutdir() throws IOException {
+        SynthOutput.delete(outdir);
+    }
+
+    @Benchmark
+    public Stack constructSingleStack() {
+        return new AwsCursusStack(SynthOutput.app(outdir, context), "AwsCursusStack");
+    }
+
+    @Benchmark
+    public CloudAssembly synthSingleStack() {
+        var app = SynthOutput.app(outdir, context);
+        new AwsCursusStack(app, "AwsCursusStack");
+        return app.synth();
+    }
+
+    @Benchmark
+    public CloudAssembly synthSplitStacks() {
+        App app = SynthOutput.app(outdir, context);
+        var props = StackProps.builder().build();
+        var profile = EnvironmentProfile.builder().build();
+        var platformStack = new AwsPlatformStack(app, "AwsCursusPlatform", props);
+        var foundationStack = new AwsFoundationStack(app, "AwsCursusFoundation", props, platformStack.getPlatform(),
+                profile);
+        new AwsApplicationStack(app, "AwsCursusApplication", props,
+                platformStack.getPlatform(), foundationStack.getFoundation(), profile);
+        return app.synth();
+    }
+
+    /**
+     * The services context of cdk.json with count entries, each with its own target group, listener rule and service.
+     */
+    private static List<Map<String, Object>> createCatalog(int count) {
+        var catalog = new ArrayList<Map<String, Object>>();
+        for (int i = 1; i <= count; i++) {
+            catalog.add(Map.of("mode", "mode" + i, "containerName", "container" + i, "priority", i));
+        }
+        return catalog;
+    }
+}
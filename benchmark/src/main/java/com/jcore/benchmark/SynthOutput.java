@@ -0,0 +1,42 @@
+package com.jcore.benchmark;
+
+import software.amazon.awscdk.App;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A throw-away cdk.out for the benchmarks.
+ */
+final class SynthOutput {
+
+    private SynthOutput() {
+    }
+
+    static Path create() throws IOException {
+        return Files.createTempDirectory("aws-cursus-synth");
+    }
+
+    static App app(Path outdir) {
+        return app(outdir, Map.of());
+    }
+
+    static App app(Path outdir, Map<String, Object> context) {
+        return App.Builder.create()
+                .outdir(outdir.toString())
+                .context(context)
+                .build();
+    }
+
+    static void delete(Path outdir) throws IOException {
+        try (Stream<Path> files = Files.walk(outdir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+import http from 'k6/http';
+import { check } from 'k6';
+
+// The pipeline passes the budgets from PipelineSettings.loadTest, run-local.sh uses the defaults below.
+const TARGET_URL = __ENV.TARGET_URL || 'http://localhost:8080';
+const PATHS = (__ENV.PATHS || '/send/api/v1/messenger/healthcheck,/receive/api/v1/messenger/healthcheck').split(',');
+const DURATION = __ENV.DURATION || '2m';
+const VIRTUAL_USERS = Number(__ENV.VIRTUAL_USERS || 50);
+const P50_MS = Number(__ENV.P50_MS || 100);
+const P99_MS = Number(__ENV.P99_MS || 500);
+const REQUESTS_PER_SECOND = Number(__ENV.REQUESTS_PER_SECOND || 50);
+
+export const options = {
+    scenarios: {
+        messenger: {
+            // a fixed arrival rate, a slow target shows up as latency and dropped iterations instead of fewer requests
+            executor: 'constant-arrival-rate',
+            rate: REQUESTS_PER_SECOND,
+            timeUnit: '1s',
+            duration: DURATION,
+            preAllocatedVUs: VIRTUAL_USERS,
+        },
+    },
+    thresholds: {
+        http_req_failed: ['rate<0.01'],
+        http_req_duration: [`p(50)<${P50_MS}`, `p(99)<${P99_MS}`],
+        // allow for the first second without traffic
+        http_reqs: [`rate>=${REQUESTS_PER_SECOND * 0.95}`],
+        dropped_iterations: [`count<${REQUESTS_PER_SECOND}`],
+    },
+};
+
+export default function () {
+    const path = PATHS[__ITER % PATHS.length];
+    const response = http.get(`${TARGET_URL}${path}`, { tags: { name: path } });
+    check(response, { 'status is 200': (r) => r.status === 200 });
+}
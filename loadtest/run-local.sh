@@ -0,0 +1,25 @@
+#!/usr/bin/env bash
+# Runs the load test against a local nginx stand-in, or against TARGET_URL when it is set (on NETWORK).
+# Budgets can be overridden the same way the pipeline does, e.g. P99_MS=250 ./loadtest/run-local.sh
+set -euo pipefail
+
+cd "$(dirname "$0")"
+NETWORK=${NETWORK:-messenger-loadtest}
+
+docker network create "$NETWORK" >/dev/null 2>&1 || true
+if [ -z "${TARGET_URL:-}" ]; then
+  docker run -d --rm --name messenger-stand-in --network "$NETWORK" \
+    -v "$PWD/stand-in/nginx.conf:/etc/nginx/conf.d/default.conf:ro" nginx:alpine >/dev/null
+  trap 'docker stop messenger-stand-in >/dev/null' EXIT
+  TARGET_URL=http://messenger-stand-in:8080
+fi
+
+docker run --rm -i --network "$NETWORK" \
+  -e TARGET_URL="$TARGET_URL" \
+  -e DURATION="${DURATION:-30s}" \
+  -e VIRTUAL_USERS \
+  -e P50_MS \
+  -e P99_MS \
+  -e REQUESTS_PER_SECOND \
+  -e PATHS \
+  grafana/k6 run - < messenger.js
@@ -0,0 +1,266 @@
+package com.jcore;
+
+import software.amazon.awscdk.Duration;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.region_info.FactName;
+import software.amazon.awscdk.services.athena.CfnNamedQuery;
+import software.amazon.awscdk.services.athena.CfnWorkGroup;
+import software.amazon.awscdk.services.elasticloadbalancingv2.CfnLoadBalancer;
+import software.amazon.awscdk.services.glue.CfnDatabase;
+import software.amazon.awscdk.services.glue.CfnTable;
+import software.amazon.awscdk.services.iam.AccountPrincipal;
+import software.amazon.awscdk.services.iam.PolicyStatement;
+import software.amazon.awscdk.services.iam.ServicePrincipal;
+import software.amazon.awscdk.services.s3.BlockPublicAccess;
+import software.amazon.awscdk.services.s3.Bucket;
+import software.amazon.awscdk.services.s3.BucketEncryption;
+import software.amazon.awscdk.services.s3.LifecycleRule;
+import software.constructs.Construct;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access logs of the load balancers in S3, with an Athena table and the queries to find where the time went.
+ */
+public class AwsAccessLogService {
+
+    private static final String DATABASE = "sebas_access_logs";
+    private static final String ALB_TABLE = "alb_access_logs";
+    private static final String ALB_PREFIX = "alb";
+    private static final String NLB_PREFIX = "nlb";
+    private static final int RETENTION_DAYS = 30;
+
+    /**
+     * The access log entry of an application load balancer, one group per column of the table.
+     */
+    private static final String ALB_LOG_PATTERN = """
+            ([^ ]*) ([^ ]*) ([^ ]*) ([^ ]*):([0-9]*) ([^ ]*)[:-]([0-9]*) ([-.0-9]*) ([-.0-9]*) ([-.0-9]*) (|[-0-9]*) \
+            (-|[-0-9]*) ([-0-9]*) ([-0-9]*) "([^ ]*) (.*) (- |[^ ]*)" "([^"]*)" ([A-Z0-9-_]+) ([A-Za-z0-9.-]*) ([^ ]*) \
+            "([^"]*)" "([^"]*)" "([^"]*)" ([-.0-9]*) ([^ ]*) "([^"]*)" "([^"]*)" "([^ ]*)" "([^\\s]+?)" "([^\\s]+)" \
+            "([^ ]*)" "([^ ]*)" ?([^ ]*)?""";
+
+    private final Construct scope;
+    private final String prefix;
+
+    public AwsAccessLogService(Construct scope, String prefix) {
+        this.scope = scope;
+        this.prefix = prefix;
+    }
+
+    /**
+     * ALB logs are written by the load balancing account of the region (or its log delivery service in the newer
+     * regions), NLB logs by the log delivery service. Both only support SSE-S3.
+     */
+    public Bucket createAccessLogBucket() {
+        var bucket = Bucket.Builder.create(scope, prefix + "access-logs")
+                .encryption(BucketEncryption.S3_MANAGED)
+                .blockPublicAccess(BlockPublicAccess.BLOCK_ALL)
+                .enforceSsl(true)
+                .lifecycleRules(List.of(
+                        LifecycleRule.builder()
+                                .expiration(Duration.days(RETENTION_DAYS))
+                                .build()
+                ))
+                .build();
+        var stack = Stack.of(scope);
+        var albLogs = bucket.arnForObjects("%s/AWSLogs/%s/*".formatted(ALB_PREFIX, stack.getAccount()));
+        var nlbLogs = bucket.arnForObjects("%s/AWSLogs/%s/*".formatted(NLB_PREFIX, stack.getAccount()));
+        bucket.addToResourcePolicy(PolicyStatement.Builder.create()
+                .principals(List.of(
+                        new AccountPrincipal(stack.regionalFact(FactName.ELBV2_ACCOUNT)),
+                        new ServicePrincipal("logdelivery.elasticloadbalancing.amazonaws.com")))
+                .actions(List.of("s3:PutObject"))
+                .resources(List.of(albLogs))
+                .build());
+        bucket.addToResourcePolicy(PolicyStatement.Builder.create()
+                .principals(List.of(new ServicePrincipal("delivery.logs.amazonaws.com")))
+                .actions(List.of("s3:PutObject"))
+                .resources(List.of(nlbLogs))
+                .conditions(Map.of("StringEquals", Map.of("s3:x-amz-acl", "bucket-owner-full-control")))
+                .build());
+        bucket.addToResourcePolicy(PolicyStatement.Builder.create()
+                .principals(List.of(new ServicePrincipal("delivery.logs.amazonaws.com")))
+                .actions(List.of("s3:GetBucketAcl"))
+                .resources(List.of(bucket.getBucketArn()))
+                .build());
+        return bucket;
+    }
+
+    /**
+     * The load balancer checks that it may write to the bucket when logging is turned on, so it waits for the policy.
+     */
+    public void enableAccessLogs(CfnLoadBalancer loadBalancer, Bucket bucket, boolean isALB) {
+        var attributes = new ArrayList<Object>();
+        if (loadBalancer.getLoadBalancerAttributes() != null) {
+            attributes.addAll((List<?>) loadBalancer.getLoadBalancerAttributes());
+        }
+        attributes.add(attribute("access_logs.s3.enabled", "true"));
+        attributes.add(attribute("access_logs.s3.bucket", bucket.getBucketName()));
+        attributes.add(attribute("access_logs.s3.prefix", isALB ? ALB_PREFIX : NLB_PREFIX));
+        loadBalancer.setLoadBalancerAttributes(attributes);
+        loadBalancer.getNode().addDependency(bucket);
+    }
+
+    private CfnLoadBalancer.LoadBalancerAttributeProperty attribute(String key, String value) {
+        return CfnLoadBalancer.LoadBalancerAttributeProperty.builder()
+                .key(key)
+                .value(value)
+                .build();
+    }
+
+    /**
+     * The ALB log table, partitioned by day through partition projection so no crawler or MSCK REPAIR is needed, a
+     * workgroup writing its results next to the logs and the saved forensics queries.
+     */
+    public CfnWorkGroup createAccessLogQueries(Bucket bucket) {
+        var stack = Stack.of(scope);
+        var database = CfnDatabase.Builder.create(scope, prefix + "access-log-database")
+                .catalogId(stack.getAccount())
+                .databaseInput(CfnDatabase.DatabaseInputProperty.builder()
+                        .name(DATABASE)
+                        .build())
+                .build();
+
+        var parameters = new LinkedHashMap<String, String>();
+        parameters.put("projection.enabled", "true");
+        parameters.put("projection.day.type", "date");
+        parameters.put("projection.day.range", "2025/01/01,NOW");
+        parameters.put("projection.day.format", "yyyy/MM/dd");
+        parameters.put("projection.day.interval", "1");
+        parameters.put("projection.day.interval.unit", "DAYS");
+        parameters.put("storage.location.template", "s3://%s/%s/AWSLogs/%s/elasticloadbalancing/%s/${day}"
+                .formatted(bucket.getBucketName(), ALB_PREFIX, stack.getAccount(), stack.getRegion()));
+        var table = CfnTable.Builder.create(scope, prefix + "alb-access-log-table")
+                .catalogId(stack.getAccount())
+                .databaseName(DATABASE)
+                .tableInput(CfnTable.TableInputProperty.builder()
+                        .name(ALB_TABLE)
+                        .tableType("EXTERNAL_TABLE")
+                        .parameters(parameters)
+                        .partitionKeys(List.of(column("day", "string")))
+                        .storageDescriptor(CfnTable.StorageDescriptorProperty.builder()
+                                .location("s3://%s/%s/AWSLogs/%s/elasticloadbalancing/%s/"
+                                        .formatted(bucket.getBucketName(), ALB_PREFIX, stack.getAccount(), stack.getRegion()))
+                                .inputFormat("org.apache.hadoop.mapred.TextInputFormat")
+                                .outputFormat("org.apache.hadoop.hive.ql.io.HiveIgnoreKeyTextOutputFormat")
+                                .serdeInfo(CfnTable.SerdeInfoProperty.builder()
+                                        .serializationLibrary("org.apache.hadoop.hive.serde2.RegexSerDe")
+                                        .parameters(Map.of("serialization.format", "1", "input.regex", ALB_LOG_PATTERN))
+                                        .build())
+                                .columns(createAlbColumns())
+                                .build())
+                        .build())
+                .build();
+        table.addDependency(database);
+
+        var workGroup = CfnWorkGroup.Builder.create(scope, prefix + "access-log-workgroup")
+                .name("sebas-access-logs")
+                .workGroupConfiguration(CfnWorkGroup.WorkGroupConfigurationProperty.builder()
+                        .enforceWorkGroupConfiguration(true)
+                        .resultConfiguration(CfnWorkGroup.ResultConfigurationProperty.builder()
+                                .outputLocation("s3://%s/athena-results/".formatted(bucket.getBucketName()))
+                                .build())
+                        .build())
+                .build();
+
+        createQuery(workGroup, "p99-per-path", "p99 of the three processing times per path, the last day", """
+                SELECT url_extract_path(request_url) AS path,
+                       count(*) AS requests,
+                       approx_percentile(request_processing_time, 0.99) AS p99_request_processing,
+                       approx_percentile(target_processing_time, 0.99) AS p99_target_processing,
+                       approx_percentile(response_processing_time, 0.99) AS p99_response_processing
+                FROM %s.%s
+                WHERE day >= date_format(current_date - interval '1' day, '%%Y/%%m/%%d')
+                  AND target_processing_time >= 0
+                GROUP BY 1
+                ORDER BY p99_target_processing DESC
+                LIMIT 50
+                """.formatted(DATABASE, ALB_TABLE));
+        createQuery(workGroup, "slowest-targets", "targets with the highest p99 target processing time, the last day", """
+                SELECT target_ip,
+                       target_group_arn,
+                       count(*) AS requests,
+                       avg(target_processing_time) AS avg_target_processing,
+                       approx_percentile(target_processing_time, 0.99) AS p99_target_processing,
+                       max(target_processing_time) AS max_target_processing
+                FROM %s.%s
+                WHERE day >= date_format(current_date - interval '1' day, '%%Y/%%m/%%d')
+                  AND target_processing_time >= 0
+                GROUP BY 1, 2
+                ORDER BY p99_target_processing DESC
+                LIMIT 20
+                """.formatted(DATABASE, ALB_TABLE));
+        createQuery(workGroup, "error-bursts", "minutes with more than 10 5xx responses, by load balancer and target, the last day", """
+                SELECT date_trunc('minute', from_iso8601_timestamp(time)) AS minute,
+                       count_if(elb_status_code >= 500 AND target_status_code = '-') AS load_balancer_errors,
+                       count_if(target_status_code LIKE '5%%') AS target_errors,
+                       count(*) AS requests
+                FROM %s.%s
+                WHERE day >= date_format(current_date - interval '1' day, '%%Y/%%m/%%d')
+                GROUP BY 1
+                HAVING count_if(elb_status_code >= 500) > 10
+                ORDER BY minute DESC
+                """.formatted(DATABASE, ALB_TABLE));
+        return workGroup;
+    }
+
+    private void createQuery(CfnWorkGroup workGroup, String name, String description, String query) {
+        var namedQuery = CfnNamedQuery.Builder.create(scope, prefix + "access-log-query-" + name)
+                .name(name)
+                .description(description)
+                .database(DATABASE)
+                .workGroup(workGroup.getName())
+                .queryString(query)
+                .build();
+        namedQuery.addDependency(workGroup);
+    }
+
+    private List<CfnTable.ColumnProperty> createAlbColumns() {
+        return List.of(
+                column("type", "string"),
+                column("time", "string"),
+                column("elb", "string"),
+                column("client_ip", "string"),
+                column("client_port", "int"),
+                column("target_ip", "string"),
+                column("target_port", "int"),
+                column("request_processing_time", "double"),
+                column("target_processing_time", "double"),
+                column("response_processing_time", "double"),
+                column("elb_status_code", "int"),
+                column("target_status_code", "string"),
+                column("received_bytes", "bigint"),
+                column("sent_bytes", "bigint"),
+                column("request_verb", "string"),
+                column("request_url", "string"),
+                column("request_proto", "string"),
+                column("user_agent", "string"),
+                column("ssl_cipher", "string"),
+                column("ssl_protocol", "string"),
+                column("target_group_arn", "string"),
+                column("trace_id", "string"),
+                column("domain_name", "string"),
+                column("chosen_cert_arn", "string"),
+                column("matched_rule_priority", "string"),
+                column("request_creation_time", "string"),
+                column("actions_executed", "string"),
+                column("redirect_url", "string"),
+                column("lambda_error_reason", "string"),
+                column("target_port_list", "string"),
+                column("target_status_code_list", "string"),
+                column("classification", "string"),
+                column("classification_reason", "string"),
+                column("conn_trace_id", "string")
+        );
+    }
+
+    private CfnTable.ColumnProperty column(String name, String type) {
+        return CfnTable.ColumnProperty.builder()
+                .name(name)
+                .type(type)
+                .build();
+    }
+}
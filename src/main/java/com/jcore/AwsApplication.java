@@ -0,0 +1,95 @@
+package com.jcore;
+
+import com.jcore.model.ChangeStreamSettings;
+import com.jcore.model.EnvironmentProfile;
+import com.jcore.model.ServiceDefinition;
+import com.jcore.model.ServiceSettings;
+import lombok.Getter;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.services.codepipeline.CfnPipeline;
+import software.amazon.awscdk.services.ecs.CfnService;
+import software.constructs.Construct;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The services of the service catalog and the pipeline that deploys them, the part that changes with every release.
+ */
+@Getter
+public class AwsApplication {
+
+    // per mode, in the order of the service catalog
+    private final Map<String, CfnService> services = new LinkedHashMap<>();
+    private final CfnPipeline pipeline;
+
+    public AwsApplication(Construct scope, String prefix, AwsPlatform platform, AwsFoundation foundation, EnvironmentProfile profile) {
+        var ecsService = new AwsEcsService(scope, prefix);
+        var pipelineService = new AwsPipelineService(scope, prefix);
+
+        for (var definition : foundation.getServices()) {
+            var serviceSettings = getDefaultMessengerSettings(getServiceSettings(definition, profile), scope, platform, foundation)
+                    .targetGroup(foundation.getTargetGroups().get(definition.getMode()).getAttrTargetGroupArn())
+                    .profilingBucket(foundation.getProfilingBucket() != null ? foundation.getProfilingBucket().getBucketName() : null);
+            var service = ecsService.createService(serviceSettings.build());
+            service.addDependency(foundation.getListener());
+            services.put(definition.getMode(), service);
+            var stagingTargetGroup = foundation.getStagingTargetGroups().get(definition.getMode());
+            if (stagingTargetGroup != null) {
+                var stagingService = ecsService.createStagingService(serviceSettings.targetGroup(stagingTargetGroup.getAttrTargetGroupArn()).build(),
+                        service.getTaskDefinition());
+                stagingService.addDependency(foundation.getStagingListener());
+            }
+        }
+
+        // here rather than in the foundation, so a change to the stages only updates this stack
+        pipeline = pipelineService.createPipeline(foundation.getPipelineSettings());
+    }
+
+    /**
+     * The settings of a catalog entry in a profile, without the resources of the foundation. The local sandbox runs
+     * its containers with the same.
+     */
+    static ServiceSettings.ServiceSettingsBuilder getServiceSettings(ServiceDefinition definition, EnvironmentProfile profile) {
+        return ServiceSettings.builder()
+                .mode(definition.getMode())
+                .containerName(definition.getContainerName())
+                .port(definition.getPort())
+                .cpu(valueOr(definition.getCpu(), profile.getTaskCpu()))
+                .memory(valueOr(definition.getMemory(), profile.getTaskMemory()))
+                .desiredCount(valueOr(definition.getDesiredCount(), profile.getDesiredCount()))
+                .minCapacity(valueOr(definition.getMinCapacity(), profile.getMinCapacity()))
+                .maxCapacity(valueOr(definition.getMaxCapacity(), profile.getMaxCapacity()))
+                .targetCpuUtilization(valueOr(definition.getTargetCpuUtilization(), profile.getTargetCpuUtilization()))
+                .scalingWindows(definition.getScalingWindows())
+                .logging(profile.getLogging())
+                .metricsNamespace(profile.getMetricsNamespace())
+                .tracing(profile.isTracing())
+                .tracingSamplingRate(profile.getTracingSamplingRate())
+                .changeStreams(getChangeStreams(profile, definition.getMode()));
+    }
+
+    private ServiceSettings.ServiceSettingsBuilder getDefaultMessengerSettings(ServiceSettings.ServiceSettingsBuilder settings, Construct scope,
+                                                                               AwsPlatform platform, AwsFoundation foundation) {
+        return settings
+                .region(Stack.of(scope).getRegion())
+                .cluster(foundation.getCluster().getAttrArn())
+                .clusterName(foundation.getCluster().getClusterName())
+                .securityGroup(platform.getSecurityGroup().getAttrId())
+                .subnets(platform.getPrivateSubnets())
+                .transport(foundation.getTransport())
+                .databaseUrl(foundation.getDatabaseEndpoint())
+                .connectionString(foundation.getConnectionString())
+                .username(AwsFoundation.USER)
+                .password(foundation.getPasswordSecret());
+    }
+
+    private static ChangeStreamSettings getChangeStreams(EnvironmentProfile profile, String mode) {
+        var changeStreams = profile.getChangeStreams();
+        return changeStreams.isEnabled() && changeStreams.getConsumers().contains(mode) ? changeStreams : null;
+    }
+
+    private static int valueOr(Integer value, int profileValue) {
+        return value != null ? value : profileValue;
+    }
+}
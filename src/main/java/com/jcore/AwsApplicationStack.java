@@ -0,0 +1,19 @@
+package com.jcore;
+
+import com.jcore.model.EnvironmentProfile;
+import lombok.Getter;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.StackProps;
+import software.constructs.Construct;
+
+@Getter
+public class AwsApplicationStack extends Stack {
+
+    private final AwsApplication application;
+
+    public AwsApplicationStack(final Construct scope, final String id, final StackProps props, final AwsPlatform platform, final AwsFoundation foundation,
+                               final EnvironmentProfile profile) {
+        super(scope, id, props);
+        application = new AwsApplication(this, AwsCursusApp.PREFIX, platform, foundation, profile);
+    }
+}
@@ -1,39 +1,89 @@
 package com.jcore;
 
+import com.jcore.model.EnvironmentProfile;
 import software.amazon.awscdk.App;
+import software.amazon.awscdk.Aspects;
+import software.amazon.awscdk.Environment;
+import software.amazon.awscdk.Stack;
 import software.amazon.awscdk.StackProps;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
 public class AwsCursusApp {
+    // the prefix of the construct ids and of most resource names, the same in every stack
+    static final String PREFIX = "sebastiaans-";
+
     public static void main(final String[] args) {
         App app = new App();
+        // -c sandbox=<dir> also writes a docker compose environment per profile to <dir>/<profile>
+        var sandbox = (String) app.getNode().tryGetContext("sandbox");
 
-        new AwsCursusStack(app, "AwsCursusStack", StackProps.builder()
-                // If you don't specify 'env', this stack will be environment-agnostic.
-                // Account/Region-dependent features and context lookups will not work,
-                // but a single synthesized template can be deployed anywhere.
+        // -c profile=perf synthesizes the stacks of one profile from the profiles context, -c profile=dev,perf of several
+        for (var profile : ProfileLoader.selected(app)) {
+            var suffix = profile.getName() == null ? "" : "-" + profile.getName();
+            var guardrails = PerformanceGuardrails.fromContext(app, profile.getName());
+            createStacks(app, suffix, profile).forEach(stack -> Aspects.of(stack).add(guardrails));
+            if (sandbox != null) {
+                new LocalSandbox(app, PREFIX, profile).write(Path.of(sandbox, profile.getName() == null ? "default" : profile.getName()));
+            }
+        }
 
-                // Uncomment the next block to specialize this stack for the AWS Account
-                // and Region that are implied by the current CLI configuration.
-                /*
-                .env(Environment.builder()
-                        .account(System.getenv("CDK_DEFAULT_ACCOUNT"))
-                        .region(System.getenv("CDK_DEFAULT_REGION"))
-                        .build())
-                */
+        app.synth();
+    }
 
-                // Uncomment the next block if you know exactly what Account and Region you
-                // want to deploy the stack to.
-                /*
-                .env(Environment.builder()
-                        .account("123456789012")
-                        .region("us-east-1")
-                        .build())
-                */
+    /**
+     * The stacks of every region of the profile, the regions after the first join the global cluster of the first so
+     * they are deployed after it.
+     */
+    private static List<Stack> createStacks(App app, String suffix, EnvironmentProfile profile) {
+        if (!profile.isMultiRegion()) {
+            return createRegionStacks(app, suffix, profile);
+        }
+        var stacks = new ArrayList<Stack>();
+        List<Stack> primaryStacks = null;
+        for (var region : profile.getRegions()) {
+            var regionStacks = createRegionStacks(app, suffix + "-" + region, profile.toBuilder().region(region).build());
+            if (primaryStacks == null) {
+                primaryStacks = regionStacks;
+            } else {
+                regionStacks.get(0).addDependency(primaryStacks.get(primaryStacks.size() - 1));
+            }
+            stacks.addAll(regionStacks);
+        }
+        return stacks;
+    }
 
-                // For more information, see https://docs.aws.amazon.com/cdk/latest/guide/environments.html
-                .build());
+    private static List<Stack> createRegionStacks(App app, String suffix, EnvironmentProfile profile) {
+        var props = createStackProps(profile);
+        if ("single".equals(app.getNode().tryGetContext("stacks"))) {
+            return List.of(new AwsCursusStack(app, "AwsCursusStack" + suffix, props, profile));
+        }
+        // split so a release only updates the small application stack
+        var platformStack = new AwsPlatformStack(app, "AwsCursusPlatform" + suffix, props);
+        var foundationStack = new AwsFoundationStack(app, "AwsCursusFoundation" + suffix, props,
+                platformStack.getPlatform(), profile);
+        var applicationStack = new AwsApplicationStack(app, "AwsCursusApplication" + suffix, props,
+                platformStack.getPlatform(), foundationStack.getFoundation(), profile);
+        return List.of(platformStack, foundationStack, applicationStack);
+    }
 
-        app.synth();
+    private static StackProps createStackProps(EnvironmentProfile profile) {
+        // Without an account and region in the profile the stacks are environment-agnostic.
+        // Account/Region-dependent features and context lookups will not work,
+        // but a single synthesized template can be deployed anywhere.
+        // Profiles that are synthesized together should name different accounts (or regions),
+        // the resources have fixed physical names.
+        if (profile.getAccount() == null && profile.getRegion() == null) {
+            return StackProps.builder().build();
+        }
+        // For more information, see https://docs.aws.amazon.com/cdk/latest/guide/environments.html
+        return StackProps.builder()
+                .env(Environment.builder()
+                        .account(profile.getAccount())
+                        .region(profile.getRegion())
+                        .build())
+                .build();
     }
 }
-
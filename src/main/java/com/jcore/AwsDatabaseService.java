@@ -1,18 +1,57 @@
 package com.jcore;
 
+import com.jcore.model.ChangeStreamSettings;
+import com.jcore.model.DatabaseSettings;
 import software.amazon.awscdk.Fn;
+import software.amazon.awscdk.customresources.AwsCustomResource;
+import software.amazon.awscdk.customresources.AwsCustomResourcePolicy;
+import software.amazon.awscdk.customresources.AwsSdkCall;
+import software.amazon.awscdk.customresources.PhysicalResourceId;
 import software.amazon.awscdk.services.docdb.CfnDBCluster;
 import software.amazon.awscdk.services.docdb.CfnDBClusterParameterGroup;
 import software.amazon.awscdk.services.docdb.CfnDBInstance;
 import software.amazon.awscdk.services.docdb.CfnDBSubnetGroup;
+import software.amazon.awscdk.services.docdbelastic.CfnCluster;
+import software.amazon.awscdk.services.iam.PolicyStatement;
 import software.amazon.awscdk.services.secretsmanager.CfnSecret;
 import software.constructs.Construct;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class AwsDatabaseService {
 
+    // the connection limit of a DocumentDB instance by size, the same for every instance family
+    private static final Map<String, Integer> MAX_CONNECTIONS = Map.of(
+            "medium", 500,
+            "large", 1700,
+            "xlarge", 3400,
+            "2xlarge", 6800,
+            "4xlarge", 13600,
+            "8xlarge", 27200,
+            "12xlarge", 30000,
+            "16xlarge", 30000,
+            "24xlarge", 30000);
+    private static final int MAX_POOL_SIZE = 100;
+    private static final int MIN_POOL_SIZE = 10;
+    // burstable classes run at a baseline of 20% CPU, more replicas only spread load the credits cannot carry
+    private static final int MAX_BURSTABLE_REPLICAS = 1;
+    private static final List<Integer> SHARD_CAPACITIES = List.of(2, 4, 8, 16, 32, 64);
+    // the connection limit of an elastic shard by its vCPUs, taken as that of the instance size with as many vCPUs
+    private static final Map<Integer, Integer> MAX_SHARD_CONNECTIONS = Map.of(
+            2, 1700,
+            4, 3400,
+            8, 6800,
+            16, 13600,
+            32, 27200,
+            64, 30000);
+    private static final int MAX_SHARD_COUNT = 32;
+    private static final int MAX_SHARD_INSTANCE_COUNT = 16;
+    private static final int ELASTIC_PORT = 27017;
+    private static final int MAX_CHANGE_STREAM_RETENTION_HOURS = 7 * 24;
+
     private final Construct scope;
     private final String prefix;
 
@@ -21,22 +60,13 @@ public class AwsDatabaseService {
         this.prefix = prefix;
     }
 
-    public CfnDBCluster createDatabaseInstance(List<String> subnets, String securityGroup, String username, CfnSecret password) {
-        // 1. Create Cluster Parameter Group
-        CfnDBClusterParameterGroup parameterGroup = CfnDBClusterParameterGroup.Builder.create(scope, prefix + "ParameterGroup")
-                .description("Parameter group for DocumentDB cluster")
-                .family("docdb5.0")
-                .parameters(Map.of(
-                        "tls", "disabled",
-                        "ttl_monitor", "disabled"
-                ))
-                .build();
+    public CfnDBCluster createDatabaseInstance(List<String> subnets, String securityGroup, String username, CfnSecret password,
+                                               DatabaseSettings settings) {
+        checkInstanceClasses(settings);
 
-        CfnDBSubnetGroup subnetGroup = CfnDBSubnetGroup.Builder.create(scope, prefix + "db-subnets")
-                .dbSubnetGroupDescription("Subnet group for DocumentDB")
-                .subnetIds(subnets)
-                .dbSubnetGroupName(prefix + "subnet-group")
-                .build();
+        // 1. Create Cluster Parameter Group
+        var parameterGroup = createParameterGroup(settings);
+        var subnetGroup = createSubnetGroup(subnets);
 
         // 2. Create DocumentDB Cluster
         CfnDBCluster cluster = CfnDBCluster.Builder.create(scope, prefix + "database-cluster")
@@ -51,22 +81,226 @@ public class AwsDatabaseService {
                 .dbSubnetGroupName(subnetGroup.getDbSubnetGroupName())
                 .storageEncrypted(true)
                 .backupRetentionPeriod(1)
+                .storageType(settings.getStorageType().value())
                 .build();
         cluster.addDependency(subnetGroup);
 
-        // 3. Create DocumentDB Instance (1 node)
-        CfnDBInstance instance = CfnDBInstance.Builder.create(scope, prefix + "database-instance")
-                .dbInstanceIdentifier(prefix + "dbinstance")
-                .dbInstanceClass("db.t3.medium")
-                .dbClusterIdentifier(cluster.getRef())
-                .build();
+        // 3. Create DocumentDB Instances, the first is the primary, the others are read replicas
+        createInstances(cluster.getRef(), settings.getWriterInstanceClass(), settings);
 
         return cluster;
     }
 
+    /**
+     * Makes the cluster the primary of a global cluster, the clusters of the other regions join it as read-only
+     * secondaries. CloudFormation has no DocumentDB global cluster, so this uses the API. On delete the primary leaves
+     * the global cluster before the global cluster is deleted.
+     */
+    public AwsCustomResource createGlobalCluster(CfnDBCluster primary) {
+        var clusterArn = Fn.sub("arn:${AWS::Partition}:rds:${AWS::Region}:${AWS::AccountId}:cluster:${Cluster}",
+                Map.of("Cluster", primary.getRef()));
+        var globalCluster = AwsCustomResource.Builder.create(scope, prefix + "global-cluster")
+                .onCreate(AwsSdkCall.builder()
+                        .service("DocDB")
+                        .action("createGlobalCluster")
+                        .parameters(Map.of(
+                                "GlobalClusterIdentifier", getGlobalClusterIdentifier(),
+                                "SourceDBClusterIdentifier", clusterArn))
+                        .physicalResourceId(PhysicalResourceId.of(getGlobalClusterIdentifier()))
+                        .build())
+                .onDelete(AwsSdkCall.builder()
+                        .service("DocDB")
+                        .action("deleteGlobalCluster")
+                        .parameters(Map.of("GlobalClusterIdentifier", getGlobalClusterIdentifier()))
+                        .ignoreErrorCodesMatching("GlobalClusterNotFoundFault")
+                        .build())
+                .policy(createGlobalClusterPolicy())
+                .build();
+        globalCluster.getNode().addDependency(primary);
+        createGlobalClusterMembership(clusterArn, globalCluster);
+        return globalCluster;
+    }
+
+    /**
+     * A read-only cluster in this region that replicates the global cluster of the primary region, created through
+     * the API since CloudFormation cannot add a cluster to a DocumentDB global cluster. It has no master user, the
+     * users come from the primary. The returned lookup has the reader endpoint and port of the cluster.
+     */
+    public AwsCustomResource createSecondaryCluster(List<String> subnets, String securityGroup, DatabaseSettings settings) {
+        checkInstanceClasses(settings);
+        var parameterGroup = createParameterGroup(settings);
+        var subnetGroup = createSubnetGroup(subnets);
+
+        var identifier = prefix + "data-cluster";
+        var clusterArn = Fn.sub("arn:${AWS::Partition}:rds:${AWS::Region}:${AWS::AccountId}:cluster:" + identifier);
+        var cluster = AwsCustomResource.Builder.create(scope, prefix + "database-cluster")
+                .onCreate(AwsSdkCall.builder()
+                        .service("DocDB")
+                        .action("createDBCluster")
+                        .parameters(Map.of(
+                                "DBClusterIdentifier", identifier,
+                                "Engine", "docdb",
+                                "GlobalClusterIdentifier", getGlobalClusterIdentifier(),
+                                "DBClusterParameterGroupName", parameterGroup.getRef(),
+                                "DBSubnetGroupName", subnetGroup.getDbSubnetGroupName(),
+                                "VpcSecurityGroupIds", List.of(securityGroup),
+                                "StorageEncrypted", true,
+                                // an encrypted secondary needs a key of its own region
+                                "KmsKeyId", "alias/aws/rds",
+                                "StorageType", settings.getStorageType().value()))
+                        .physicalResourceId(PhysicalResourceId.of(identifier))
+                        .build())
+                .onDelete(AwsSdkCall.builder()
+                        .service("DocDB")
+                        .action("deleteDBCluster")
+                        .parameters(Map.of(
+                                "DBClusterIdentifier", identifier,
+                                "SkipFinalSnapshot", true))
+                        .ignoreErrorCodesMatching("DBClusterNotFoundFault")
+                        .build())
+                .policy(createGlobalClusterPolicy())
+                .build();
+        cluster.getNode().addDependency(parameterGroup, subnetGroup);
+        createGlobalClusterMembership(clusterArn, cluster);
+
+        // every instance of a secondary is a reader
+        createInstances(identifier, settings.getReaderInstanceClass(), settings)
+                .forEach(instance -> instance.getNode().addDependency(cluster));
+
+        var lookup = AwsCustomResource.Builder.create(scope, prefix + "database-cluster-endpoint")
+                .onUpdate(AwsSdkCall.builder()
+                        .service("DocDB")
+                        .action("describeDBClusters")
+                        .parameters(Map.of("DBClusterIdentifier", identifier))
+                        .outputPaths(List.of("DBClusters.0.Endpoint", "DBClusters.0.Port"))
+                        .physicalResourceId(PhysicalResourceId.of(identifier + "-endpoint"))
+                        .build())
+                .policy(createGlobalClusterPolicy())
+                .build();
+        lookup.getNode().addDependency(cluster);
+        return lookup;
+    }
+
+    public String getGlobalClusterIdentifier() {
+        return prefix + "global-cluster";
+    }
+
+    /**
+     * Only removes the cluster from the global cluster, when it is deleted: before the cluster itself and before the
+     * global cluster, which both depend on it being gone.
+     */
+    private void createGlobalClusterMembership(String clusterArn, AwsCustomResource cluster) {
+        var membership = AwsCustomResource.Builder.create(scope, prefix + "global-cluster-membership")
+                .onDelete(AwsSdkCall.builder()
+                        .service("DocDB")
+                        .action("removeFromGlobalCluster")
+                        .parameters(Map.of(
+                                "GlobalClusterIdentifier", getGlobalClusterIdentifier(),
+                                "DbClusterIdentifier", clusterArn))
+                        .ignoreErrorCodesMatching("GlobalClusterNotFoundFault|DBClusterNotFoundFault")
+                        .build())
+                .policy(createGlobalClusterPolicy())
+                .build();
+        membership.getNode().addDependency(cluster);
+    }
+
+    // DocumentDB shares the rds actions, the policy of the sdk calls would name docdb actions
+    private AwsCustomResourcePolicy createGlobalClusterPolicy() {
+        return AwsCustomResourcePolicy.fromStatements(List.of(PolicyStatement.Builder.create()
+                .actions(List.of(
+                        "rds:CreateGlobalCluster",
+                        "rds:DeleteGlobalCluster",
+                        "rds:RemoveFromGlobalCluster",
+                        "rds:CreateDBCluster",
+                        "rds:DeleteDBCluster",
+                        "rds:DescribeDBClusters",
+                        "rds:DescribeGlobalClusters"))
+                .resources(List.of("*"))
+                .build()));
+    }
+
+    private CfnDBClusterParameterGroup createParameterGroup(DatabaseSettings settings) {
+        var parameters = new LinkedHashMap<String, String>();
+        parameters.put("tls", "disabled");
+        parameters.put("ttl_monitor", "disabled");
+        var changeStreams = settings.getChangeStreams();
+        if (changeStreams.isEnabled()) {
+            checkChangeStreams(changeStreams);
+            // the change stream log is kept this long, a reader with an older resume token has to start over
+            parameters.put("change_stream_log_retention_duration", String.valueOf(changeStreams.getRetentionHours() * 3600));
+        }
+        return CfnDBClusterParameterGroup.Builder.create(scope, prefix + "ParameterGroup")
+                .description("Parameter group for DocumentDB cluster")
+                .family("docdb5.0")
+                .parameters(parameters)
+                .build();
+    }
+
+    private CfnDBSubnetGroup createSubnetGroup(List<String> subnets) {
+        return CfnDBSubnetGroup.Builder.create(scope, prefix + "db-subnets")
+                .dbSubnetGroupDescription("Subnet group for DocumentDB")
+                .subnetIds(subnets)
+                .dbSubnetGroupName(prefix + "subnet-group")
+                .build();
+    }
+
+    /**
+     * The first instance gets the first class, the others (the read replicas) the reader class.
+     */
+    private List<CfnDBInstance> createInstances(String clusterIdentifier, String firstInstanceClass, DatabaseSettings settings) {
+        var instances = new ArrayList<CfnDBInstance>();
+        for (int i = 0; i < settings.getInstanceCount(); i++) {
+            var suffix = i == 0 ? "" : "-" + i;
+            instances.add(CfnDBInstance.Builder.create(scope, prefix + "database-instance" + suffix)
+                    .dbInstanceIdentifier(prefix + "dbinstance" + suffix)
+                    .dbInstanceClass(i == 0 ? firstInstanceClass : settings.getReaderInstanceClass())
+                    .dbClusterIdentifier(clusterIdentifier)
+                    .build());
+        }
+        return instances;
+    }
+
+    /**
+     * A sharded elastic cluster, the writes of the messenger spread over the writers of all shards. The collections
+     * still need a shard key (sh.shardCollection), unsharded collections live on a single shard.
+     */
+    public CfnCluster createElasticCluster(List<String> subnets, String securityGroup, String username, CfnSecret password,
+                                           DatabaseSettings settings) {
+        checkShards(settings);
+        if (settings.getChangeStreams().isEnabled()) {
+            throw new IllegalArgumentException("Change streams need the instance based cluster, an elastic cluster has no cluster parameter group");
+        }
+
+        return CfnCluster.Builder.create(scope, prefix + "elastic-cluster")
+                .clusterName(prefix + "elastic-cluster")
+                .authType("PLAIN_TEXT")
+                .adminUserName(username)
+                .adminUserPassword(
+                        Fn.sub("{{resolve:secretsmanager:${SecretArn}:SecretString:password}}",
+                                Map.of("SecretArn", password.getRef()))
+                )
+                .shardCount(settings.getShardCount())
+                .shardCapacity(settings.getShardCapacity())
+                .shardInstanceCount(settings.getShardInstanceCount())
+                .subnetIds(subnets)
+                .vpcSecurityGroupIds(List.of(securityGroup))
+                .backupRetentionPeriod(1)
+                .build();
+    }
+
     public CfnSecret createDatabasePassword(String username) {
+        return createDatabasePassword(username, List.of());
+    }
+
+    /**
+     * @param replicaRegions the regions that get a read-only copy of the secret, under the same name
+     */
+    public CfnSecret createDatabasePassword(String username, List<String> replicaRegions) {
         return CfnSecret.Builder.create(scope, prefix + "doc-db-secret-password")
-                .name(prefix + "database-wachtwoord")
+                .name(getPasswordSecretName())
+                .replicaRegions(replicaRegions.isEmpty() ? null : replicaRegions.stream()
+                        .map(region -> CfnSecret.ReplicaRegionProperty.builder().region(region).build())
+                        .toList())
                 .generateSecretString(CfnSecret.GenerateSecretStringProperty.builder()
                         .secretStringTemplate("{\"username\":\"%s\"}".formatted(username))
                         .generateStringKey("password")
@@ -76,22 +310,132 @@ public class AwsDatabaseService {
                 .build();
     }
 
-    public CfnSecret createConnectionStringSecret(CfnDBCluster cluster, CfnSecret password) {
+    public String getPasswordSecretName() {
+        return prefix + "database-wachtwoord";
+    }
+
+    public String getConnectionStringSecretName() {
+        return prefix + "database-connection-string";
+    }
+
+    /**
+     * The pool of every task gets an equal share of the connections of the smallest instance, without replicas all
+     * reads go to the writer.
+     */
+    public CfnSecret createConnectionStringSecret(CfnDBCluster cluster, CfnSecret password, DatabaseSettings settings) {
+        return createConnectionStringSecret(password.getRef(), cluster.getAttrEndpoint(), cluster.getAttrPort(),
+                "replicaSet=rs0&readPreference=%s&maxPoolSize=%d&retryWrites=false".formatted(
+                        settings.getInstanceCount() > 1 ? "secondaryPreferred" : "primary", getPoolSize(settings)));
+    }
+
+    /**
+     * An elastic cluster routes every request to the right shard itself, there is no replica set to name and it only
+     * accepts TLS connections. A request can reach every shard, so the pools share the connections of one shard.
+     */
+    public CfnSecret createConnectionStringSecret(CfnCluster cluster, CfnSecret password, DatabaseSettings settings) {
+        return createConnectionStringSecret(password.getRef(), cluster.getAttrClusterEndpoint(), String.valueOf(ELASTIC_PORT),
+                "tls=true&maxPoolSize=%d&retryWrites=false".formatted(getShardPoolSize(settings)));
+    }
+
+    /**
+     * The cluster endpoint of a secondary cluster with the password the primary region replicates. Reads stay in this
+     * region, writes fail while the replica set has no primary and succeed once a failover of the global cluster makes
+     * this cluster the primary, without a new connection string.
+     */
+    public CfnSecret createSecondaryConnectionStringSecret(AwsCustomResource clusterEndpoint, DatabaseSettings settings) {
+        return createConnectionStringSecret(getPasswordSecretName(),
+                clusterEndpoint.getResponseField("DBClusters.0.Endpoint"),
+                clusterEndpoint.getResponseField("DBClusters.0.Port"),
+                "replicaSet=rs0&readPreference=secondaryPreferred&maxPoolSize=%d&retryWrites=false".formatted(getPoolSize(settings)));
+    }
+
+    private CfnSecret createConnectionStringSecret(String passwordSecret, String endpoint, String port, String options) {
         String connectionString = "mongodb://" +
                 "{{resolve:secretsmanager:${SecretArn}:SecretString:username}}" +
                 ":{{resolve:secretsmanager:${SecretArn}:SecretString:password}}" +
                 "@${endpoint}:${port}" +
-                "/?replicaSet=rs0&readPreference=secondaryPreferred&retryWrites=false";
+                "/?" + options;
 
         return CfnSecret.Builder.create(scope, prefix + "secret-connection-string")
-                .name(prefix + "database-connection-string")
+                .name(getConnectionStringSecretName())
                 .secretString(
                         Fn.sub(connectionString,
-                                Map.of("SecretArn", password.getRef(),
-                                        "endpoint", cluster.getAttrEndpoint(),
-                                        "port", cluster.getAttrPort()
+                                Map.of("SecretArn", passwordSecret,
+                                        "endpoint", endpoint,
+                                        "port", port
                                 )))
                 .build();
     }
 
+    private void checkShards(DatabaseSettings settings) {
+        if (!SHARD_CAPACITIES.contains(settings.getShardCapacity())) {
+            throw new IllegalArgumentException("Shard capacity %d is not one of %s".formatted(settings.getShardCapacity(), SHARD_CAPACITIES));
+        }
+        if (settings.getShardCount() < 1 || settings.getShardCount() > MAX_SHARD_COUNT) {
+            throw new IllegalArgumentException("Shard count %d is not between 1 and %d".formatted(settings.getShardCount(), MAX_SHARD_COUNT));
+        }
+        if (settings.getShardInstanceCount() < 1 || settings.getShardInstanceCount() > MAX_SHARD_INSTANCE_COUNT) {
+            throw new IllegalArgumentException("Shard instance count %d is not between 1 and %d"
+                    .formatted(settings.getShardInstanceCount(), MAX_SHARD_INSTANCE_COUNT));
+        }
+        if (getShardPoolSize(settings) < MIN_POOL_SIZE) {
+            throw new IllegalArgumentException("%d tasks with %d connections each exceed the %d connections of a %d vCPU shard, use a larger shard capacity"
+                    .formatted(settings.getMaxTasks(), MIN_POOL_SIZE, MAX_SHARD_CONNECTIONS.get(settings.getShardCapacity()), settings.getShardCapacity()));
+        }
+    }
+
+    private void checkChangeStreams(ChangeStreamSettings changeStreams) {
+        if (changeStreams.getRetentionHours() < 1 || changeStreams.getRetentionHours() > MAX_CHANGE_STREAM_RETENTION_HOURS) {
+            throw new IllegalArgumentException("Change stream retention of %d hours is not between 1 and %d"
+                    .formatted(changeStreams.getRetentionHours(), MAX_CHANGE_STREAM_RETENTION_HOURS));
+        }
+        if (changeStreams.getCollections().isEmpty()) {
+            throw new IllegalArgumentException("Change streams need at least one collection to watch");
+        }
+    }
+
+    private void checkInstanceClasses(DatabaseSettings settings) {
+        var replicas = settings.getInstanceCount() - 1;
+        var burstable = isBurstable(settings.getWriterInstanceClass()) || (replicas > 0 && isBurstable(settings.getReaderInstanceClass()));
+        if (burstable && replicas > MAX_BURSTABLE_REPLICAS) {
+            throw new IllegalArgumentException("Burstable database class supports at most %d replica(s), not %d"
+                    .formatted(MAX_BURSTABLE_REPLICAS, replicas));
+        }
+        var poolSize = getPoolSize(settings);
+        if (poolSize < MIN_POOL_SIZE) {
+            throw new IllegalArgumentException("%d tasks with %d connections each exceed the %d connections of %s, use a larger database class"
+                    .formatted(settings.getMaxTasks(), MIN_POOL_SIZE, getMaxConnections(settings), smallestClass(settings)));
+        }
+    }
+
+    private static int getPoolSize(DatabaseSettings settings) {
+        return Math.min(MAX_POOL_SIZE, getMaxConnections(settings) / Math.max(1, settings.getMaxTasks()));
+    }
+
+    private static int getShardPoolSize(DatabaseSettings settings) {
+        return Math.min(MAX_POOL_SIZE, MAX_SHARD_CONNECTIONS.get(settings.getShardCapacity()) / Math.max(1, settings.getMaxTasks()));
+    }
+
+    private static int getMaxConnections(DatabaseSettings settings) {
+        return getMaxConnections(smallestClass(settings));
+    }
+
+    private static String smallestClass(DatabaseSettings settings) {
+        var writer = settings.getWriterInstanceClass();
+        var reader = settings.getReaderInstanceClass();
+        return settings.getInstanceCount() > 1 && getMaxConnections(reader) < getMaxConnections(writer) ? reader : writer;
+    }
+
+    private static int getMaxConnections(String instanceClass) {
+        var size = instanceClass.substring(instanceClass.lastIndexOf('.') + 1);
+        var maxConnections = MAX_CONNECTIONS.get(size);
+        if (maxConnections == null) {
+            throw new IllegalArgumentException("Unknown database instance class: " + instanceClass);
+        }
+        return maxConnections;
+    }
+
+    static boolean isBurstable(String instanceClass) {
+        return instanceClass.startsWith("db.t");
+    }
 }
@@ -1,6 +1,8 @@
 package com.jcore;
 
+import com.jcore.model.ScalingWindow;
 import software.amazon.awscdk.CfnTag;
+import software.amazon.awscdk.Stack;
 import software.amazon.awscdk.services.ec2.CfnInstance;
 import software.amazon.awscdk.services.ec2.CfnSecurityGroup;
 import software.amazon.awscdk.services.ec2.CfnSecurityGroupEgress;
@@ -8,11 +10,14 @@ import software.amazon.awscdk.services.ec2.CfnSecurityGroupIngress;
 import software.amazon.awscdk.services.elasticloadbalancingv2.CfnLoadBalancer;
 import software.amazon.awscdk.services.iam.CfnInstanceProfile;
 import software.amazon.awscdk.services.iam.CfnRole;
+import software.amazon.awscdk.services.scheduler.CfnSchedule;
 import software.constructs.Construct;
 
 import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -68,6 +73,62 @@ public class AwsEc2Service {
                 .build();
     }
 
+    /**
+     * Reserves load balancer capacity during the windows, so the balancer does not have to scale up in the first
+     * minutes of a peak. EventBridge Scheduler calls ModifyCapacityReservation at the start and resets it at the end.
+     */
+    public void createCapacityReservationSchedules(CfnLoadBalancer loadBalancer, Collection<ScalingWindow> windows) {
+        var role = CfnRole.Builder.create(scope, prefix + "capacity-reservation-scheduler-role")
+                .assumeRolePolicyDocument(Map.of(
+                        "Version", "2012-10-17",
+                        "Statement", List.of(Map.of(
+                                "Effect", "Allow",
+                                "Principal", Map.of("Service", List.of("scheduler.amazonaws.com")),
+                                "Action", List.of("sts:AssumeRole")
+                        ))
+                ))
+                .policies(List.of(CfnRole.PolicyProperty.builder()
+                        .policyName("capacity-reservation")
+                        .policyDocument(Map.of(
+                                "Version", "2012-10-17",
+                                "Statement", List.of(Map.of(
+                                        "Effect", "Allow",
+                                        "Action", List.of("elasticloadbalancing:ModifyCapacityReservation"),
+                                        "Resource", List.of(loadBalancer.getRef())
+                                ))
+                        ))
+                        .build()))
+                .build();
+
+        for (var window : windows) {
+            var reserve = new LinkedHashMap<String, Object>();
+            reserve.put("LoadBalancerArn", loadBalancer.getRef());
+            reserve.put("MinimumLoadBalancerCapacity", Map.of("CapacityUnits", window.getLoadBalancerCapacityUnits()));
+            createCapacitySchedule(window.getName() + "-start", window.getStart(), window.getTimezone(), role, reserve);
+
+            var reset = new LinkedHashMap<String, Object>();
+            reset.put("LoadBalancerArn", loadBalancer.getRef());
+            reset.put("ResetCapacityReservation", true);
+            createCapacitySchedule(window.getName() + "-end", window.getEnd(), window.getTimezone(), role, reset);
+        }
+    }
+
+    private CfnSchedule createCapacitySchedule(String name, String cron, String timezone, CfnRole role, Map<String, Object> input) {
+        return CfnSchedule.Builder.create(scope, prefix + "capacity-reservation-" + name)
+                .name("sebas-alb-capacity-" + name)
+                .scheduleExpression("cron(%s)".formatted(cron))
+                .scheduleExpressionTimezone(timezone)
+                .flexibleTimeWindow(CfnSchedule.FlexibleTimeWindowProperty.builder()
+                        .mode("OFF")
+                        .build())
+                .target(CfnSchedule.TargetProperty.builder()
+                        .arn("arn:aws:scheduler:::aws-sdk:elasticloadbalancingv2:modifyCapacityReservation")
+                        .roleArn(role.getAttrArn())
+                        .input(Stack.of(scope).toJsonString(input))
+                        .build())
+                .build();
+    }
+
     public CfnSecurityGroup createSecurityGroup(String vpcId, String description) {
         var securityGroup = CfnSecurityGroup.Builder.create(scope, String.format("%s-%s-sg", prefix, description))
                 .groupDescription(description)
@@ -1,6 +1,11 @@
 package com.jcore;
 
+import com.jcore.model.ChangeStreamSettings;
+import com.jcore.model.EnvironmentProfile;
+import com.jcore.model.LoggingSettings;
 import com.jcore.model.ServiceSettings;
+import software.amazon.awscdk.services.applicationautoscaling.CfnScalableTarget;
+import software.amazon.awscdk.services.applicationautoscaling.CfnScalingPolicy;
 import software.amazon.awscdk.services.ecs.CfnCluster;
 import software.amazon.awscdk.services.ecs.CfnService;
 import software.amazon.awscdk.services.ecs.CfnTaskDefinition;
@@ -8,11 +13,15 @@ import software.amazon.awscdk.services.elasticloadbalancingv2.CfnListener;
 import software.amazon.awscdk.services.elasticloadbalancingv2.CfnListenerRule;
 import software.amazon.awscdk.services.elasticloadbalancingv2.CfnTargetGroup;
 import software.amazon.awscdk.services.iam.CfnRole;
+import software.amazon.awscdk.services.logs.CfnLogGroup;
 import software.amazon.awscdk.services.secretsmanager.CfnSecret;
 import software.constructs.Construct;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class AwsEcsService {
@@ -20,35 +29,125 @@ public class AwsEcsService {
     private final String prefix;
 
     private final String CONTAINER_NAME = "sebastiaans-coole-messenger-container";
+    private static final int MAX_RULE_CONDITION_VALUES = 5;
+    // the bodies of the fixed responses, the router of the local sandbox answers with the same
+    static final String NOT_FOUND_PAGE = """
+            <h3>Helaas pindakaas, je prinses is in een ander kasteel.</h3>
+            <p>(probeer eens /send of /receive)</p>
+            """;
+    static final String LOADING_PAGE = """
+            <h3>Sorry, we zijn nog niet zo ver...</h3>
+            <p>De pagina is nog aan het laden</p>
+            """;
+    private static final String COLLECTOR_CONTAINER = "aws-otel-collector";
+    private static final String COLLECTOR_IMAGE = "public.ecr.aws/aws-observability/aws-otel-collector:v0.43.3";
+    private static final int COLLECTOR_CPU = 64;
+    private static final int COLLECTOR_MEMORY = 256;
+    // where the application image keeps the AWS Distro for OpenTelemetry java agent
+    private static final String OTEL_JAVA_AGENT = "/opt/aws-opentelemetry-agent.jar";
+    private static final String RECORDING_VOLUME = "recordings";
+    private static final String RECORDING_PATH = "/recordings";
+    private static final String RECORDING_UPLOAD_CONTAINER = "recording-upload";
+    private static final String RECORDING_UPLOAD_IMAGE = "public.ecr.aws/aws-cli/aws-cli:2.27.0";
+    private static final int RECORDING_UPLOAD_CPU = 32;
+    private static final int RECORDING_UPLOAD_MEMORY = 128;
+    private static final String LOG_ROUTER_CONTAINER = "log-router";
+    private static final String LOG_ROUTER_IMAGE = "public.ecr.aws/aws-observability/aws-for-fluent-bit:2.32.5";
+    private static final String LOG_ROUTER_CONFIG = "/tmp/messenger.conf";
+    private static final int LOG_ROUTER_CPU = 64;
+    private static final int LOG_ROUTER_MEMORY = 128;
+    // what the sidecars have to leave of the task for the application JVM
+    private static final int MIN_APPLICATION_CPU = 128;
+    private static final int MIN_APPLICATION_MEMORY = 512;
 
     public AwsEcsService(Construct scope, String prefix) {
         this.scope = scope;
         this.prefix = prefix;
     }
 
-    public CfnCluster createCluster() {
+    public CfnCluster createCluster(EnvironmentProfile.ContainerInsights containerInsights) {
         return CfnCluster.Builder
                 .create(scope, prefix + "fargate-cluster")
                 .clusterName("sebas-zn-fantastische-cdk-cluster")
                 .capacityProviders(List.of("FARGATE", "FARGATE_SPOT"))
+                // the running task count on the performance dashboard comes from container insights
+                .clusterSettings(List.of(CfnCluster.ClusterSettingsProperty.builder()
+                        .name("containerInsights")
+                        .value(containerInsights.name().toLowerCase(Locale.ROOT))
+                        .build()))
                 .build();
     }
 
     public CfnTaskDefinition createMessengerService(ServiceSettings settings) {
 
-        var taskRole = createTaskRole(settings.getMode());
+        var taskRole = createTaskRole(settings);
 
-        Map<String, String> envVars = new HashMap<>();
-        envVars.put("SPRING_PROFILES_INCLUDE", "aws,%s".formatted(settings.getMode()));
-        envVars.put("SERVER_PORT", String.valueOf(settings.getPort()));
-        envVars.put("SERVER_SERVLET_CONTEXT-PATH", "/%s".formatted(settings.getMode()));
-        envVars.put("AWS_SNSTOPIC", settings.getSnsTopic());
-        envVars.put("AWS_SQSQUEUE", settings.getSqsQueue());
+        var envVars = createApplicationVariables(settings);
 
         Map<String, CfnSecret> secrets = new HashMap<>();
         secrets.put("SPRING_DATA_MONGODB_URI", settings.getConnectionString());
 
-        return CfnTaskDefinition.Builder
+        var sidecars = new ArrayList<CfnTaskDefinition.ContainerDefinitionProperty>();
+        var javaOptions = new ArrayList<String>();
+        if (settings.isTracing()) {
+            envVars.putAll(createTracingVariables(settings));
+            javaOptions.add("-javaagent:" + OTEL_JAVA_AGENT);
+            sidecars.add(createCollectorContainer(settings));
+        }
+        if (settings.getProfilingBucket() != null) {
+            javaOptions.addAll(createFlightRecorderOptions());
+            sidecars.add(createRecordingUploadContainer(settings));
+        }
+        var firelens = settings.getLogging().getMode() == LoggingSettings.Mode.FIRELENS;
+        var logGroup = firelens ? createLogGroup(settings) : null;
+        if (firelens) {
+            sidecars.add(createLogRouterContainer(settings));
+        }
+        if (!javaOptions.isEmpty()) {
+            envVars.put("JAVA_TOOL_OPTIONS", String.join(" ", javaOptions));
+        }
+
+        // the sidecars get their share of the task, the application the rest
+        var applicationCpu = settings.getCpu() - sidecars.stream().mapToInt(sidecar -> sidecar.getCpu().intValue()).sum();
+        var applicationMemory = settings.getMemory() - sidecars.stream().mapToInt(sidecar -> sidecar.getMemory().intValue()).sum();
+        checkApplicationShare(settings, applicationCpu, applicationMemory);
+        var application = CfnTaskDefinition.ContainerDefinitionProperty.builder()
+                .name(settings.getContainerName())
+                .image("placeholder") //is replaced by the pipeline
+                .cpu(applicationCpu)
+                .memory(applicationMemory)
+                .essential(true)
+                .environment(createEnvironmentVariables(envVars))
+                .secrets(createSecretProperties(secrets))
+                .portMappings(List.of(
+                        CfnTaskDefinition.PortMappingProperty.builder()
+                                .hostPort(settings.getPort())
+                                .name(String.valueOf(settings.getPort()))
+                                .containerPort(settings.getPort())
+                                .protocol("tcp")
+                                .build()
+                ))
+                .logConfiguration(firelens
+                        ? createFirelensLogConfiguration(settings)
+                        : createLogConfiguration("sebas-cdk-messenger-service-" + settings.getMode(), settings.getRegion())
+                );
+        if (!sidecars.isEmpty()) {
+            // started before and stopped after the application, so nothing it sends them is lost
+            application.dependsOn(sidecars.stream()
+                    .map(sidecar -> CfnTaskDefinition.ContainerDependencyProperty.builder()
+                            .containerName(sidecar.getName())
+                            .condition("START")
+                            .build())
+                    .toList());
+        }
+        if (settings.getProfilingBucket() != null) {
+            application.mountPoints(List.of(createRecordingMountPoint()));
+        }
+        var containers = new ArrayList<CfnTaskDefinition.ContainerDefinitionProperty>();
+        containers.add(application.build());
+        containers.addAll(sidecars);
+
+        var taskDefinition = CfnTaskDefinition.Builder
                 .create(scope, "%smessenger-%s-service-taskdef".formatted(prefix, settings.getMode()))
                 .runtimePlatform(
                         CfnTaskDefinition.RuntimePlatformProperty.builder()
@@ -56,35 +155,245 @@ public class AwsEcsService {
                                 .operatingSystemFamily("LINUX")
                                 .build()
                 )
-                .containerDefinitions(List.of(
-                        CfnTaskDefinition.ContainerDefinitionProperty.builder()
-                                .name(settings.getContainerName())
-                                .image("placeholder") //is replaced by the pipeline
-                                .cpu(256)
-                                .memory(1024)
-                                .essential(true)
-                                .environment(createEnvironmentVariables(envVars))
-                                .secrets(createSecretProperties(secrets))
-                                .portMappings(List.of(
-                                        CfnTaskDefinition.PortMappingProperty.builder()
-                                                .hostPort(settings.getPort())
-                                                .name(String.valueOf(settings.getPort()))
-                                                .containerPort(settings.getPort())
-                                                .protocol("tcp")
-                                                .build()
-                                ))
-                                .logConfiguration(
-                                        createLogConfiguration("sebas-cdk-messenger-service-" + settings.getMode(), settings.getRegion())
-                                )
-                                .build()
-                ))
+                .containerDefinitions(containers)
+                .volumes(settings.getProfilingBucket() != null
+                        ? List.of(CfnTaskDefinition.VolumeProperty.builder().name(RECORDING_VOLUME).build())
+                        : null)
                 .requiresCompatibilities(List.of("FARGATE"))
-                .cpu("256")
-                .memory("1024")
+                .cpu(String.valueOf(settings.getCpu()))
+                .memory(String.valueOf(settings.getMemory()))
                 .networkMode("awsvpc")
                 .taskRoleArn(taskRole.getAttrArn())
                 .executionRoleArn(taskRole.getAttrArn())
                 .build();
+        if (logGroup != null) {
+            // the drivers do not create it, so it has to be there before a task starts
+            taskDefinition.addDependency(logGroup);
+        }
+        return taskDefinition;
+    }
+
+    /**
+     * ECS only rejects a container without cpu or memory when the task definition is registered, halfway through a
+     * deploy, so what the collector, the recording upload and the log router leave is checked at synth.
+     */
+    private void checkApplicationShare(ServiceSettings settings, int cpu, int memory) {
+        if (cpu < MIN_APPLICATION_CPU || memory < MIN_APPLICATION_MEMORY) {
+            throw new IllegalArgumentException(("The sidecars of %s leave %d CPU units and %d MiB of the task, the application needs at "
+                    + "least %d and %d, raise the cpu or memory of the task").formatted(settings.getMode(), cpu, memory,
+                    MIN_APPLICATION_CPU, MIN_APPLICATION_MEMORY));
+        }
+    }
+
+    /**
+     * The environment of the application container without its sidecars, the local sandbox gives its containers
+     * the same.
+     */
+    public Map<String, String> createApplicationVariables(ServiceSettings settings) {
+        Map<String, String> envVars = new HashMap<>();
+        envVars.put("SPRING_PROFILES_INCLUDE", "aws,%s".formatted(settings.getMode()));
+        envVars.put("SERVER_PORT", String.valueOf(settings.getPort()));
+        envVars.put("SERVER_SERVLET_CONTEXT-PATH", "/%s".formatted(settings.getMode()));
+        envVars.putAll(settings.getTransport().getEnvironmentVariables(settings.getMode()));
+        if (settings.getMetricsNamespace() != null) {
+            envVars.putAll(createMetricsVariables(settings));
+        }
+        if (settings.getChangeStreams() != null) {
+            envVars.putAll(createChangeStreamVariables(settings.getChangeStreams()));
+        }
+        return envVars;
+    }
+
+    /**
+     * For aws-embedded-metrics: metrics written to stdout as EMF end up in the log group of the container, where
+     * CloudWatch extracts them, no PutMetricData calls on the hot path.
+     */
+    private Map<String, String> createMetricsVariables(ServiceSettings settings) {
+        Map<String, String> envVars = new HashMap<>();
+        envVars.put("AWS_EMF_NAMESPACE", settings.getMetricsNamespace());
+        envVars.put("AWS_EMF_SERVICE_NAME", "messenger-" + settings.getMode());
+        envVars.put("AWS_EMF_SERVICE_TYPE", "ECS");
+        envVars.put("AWS_EMF_LOG_GROUP_NAME", getLogGroupName(settings));
+        envVars.put("AWS_EMF_ENVIRONMENT", "Local");
+        return envVars;
+    }
+
+    /**
+     * The application watches the collections instead of polling them and resumes after the last token it stored,
+     * a token older than the retention is gone from the change stream log.
+     */
+    private Map<String, String> createChangeStreamVariables(ChangeStreamSettings changeStreams) {
+        Map<String, String> envVars = new HashMap<>();
+        envVars.put("CHANGESTREAM_ENABLED", "true");
+        envVars.put("CHANGESTREAM_COLLECTIONS", String.join(",", changeStreams.getCollections()));
+        envVars.put("CHANGESTREAM_RESUMETOKENCOLLECTION", changeStreams.getResumeTokenCollection());
+        envVars.put("CHANGESTREAM_RETENTIONSECONDS", String.valueOf(changeStreams.getRetentionHours() * 3600));
+        return envVars;
+    }
+
+    /**
+     * The OpenTelemetry java agent in the image exports to the collector over localhost (the task shares its network),
+     * with the X-Ray propagator the trace continues from the X-Amzn-Trace-Id header of the load balancer.
+     */
+    private Map<String, String> createTracingVariables(ServiceSettings settings) {
+        Map<String, String> envVars = new HashMap<>();
+        envVars.put("OTEL_SERVICE_NAME", "messenger-" + settings.getMode());
+        envVars.put("OTEL_EXPORTER_OTLP_ENDPOINT", "http://localhost:4317");
+        envVars.put("OTEL_EXPORTER_OTLP_PROTOCOL", "grpc");
+        envVars.put("OTEL_PROPAGATORS", "tracecontext,baggage,xray");
+        envVars.put("OTEL_TRACES_SAMPLER", "parentbased_traceidratio");
+        envVars.put("OTEL_TRACES_SAMPLER_ARG", String.valueOf(settings.getTracingSamplingRate()));
+        envVars.put("OTEL_METRICS_EXPORTER", "none");
+        envVars.put("OTEL_LOGS_EXPORTER", "none");
+        return envVars;
+    }
+
+    /**
+     * The AWS Distro for OpenTelemetry collector with its default ECS configuration: OTLP in, X-Ray out.
+     */
+    private CfnTaskDefinition.ContainerDefinitionProperty createCollectorContainer(ServiceSettings settings) {
+        return CfnTaskDefinition.ContainerDefinitionProperty.builder()
+                .name(COLLECTOR_CONTAINER)
+                .image(COLLECTOR_IMAGE)
+                .command(List.of("--config=/etc/ecs/ecs-default-config.yaml"))
+                .cpu(COLLECTOR_CPU)
+                .memory(COLLECTOR_MEMORY)
+                // losing traces is no reason to stop the messenger
+                .essential(false)
+                .logConfiguration(createSidecarLogConfiguration(settings, "otel-collector"))
+                .build();
+    }
+
+    /**
+     * A continuous recording with the default settings (about 1% overhead) in a repository on the shared volume,
+     * the JVM closes a chunk every 16 MB.
+     */
+    private List<String> createFlightRecorderOptions() {
+        return List.of(
+                "-XX:StartFlightRecording=name=continuous,settings=default,disk=true,maxage=1h,dumponexit=true,filename=%s/exit.jfr".formatted(RECORDING_PATH),
+                "-XX:FlightRecorderOptions=repository=%s,maxchunksize=16m".formatted(RECORDING_PATH)
+        );
+    }
+
+    /**
+     * Moves the closed chunks (all but the newest) to s3://bucket/mode/task every minute, and everything that is left
+     * when the task stops.
+     */
+    private CfnTaskDefinition.ContainerDefinitionProperty createRecordingUploadContainer(ServiceSettings settings) {
+        return CfnTaskDefinition.ContainerDefinitionProperty.builder()
+                .name(RECORDING_UPLOAD_CONTAINER)
+                .image(RECORDING_UPLOAD_IMAGE)
+                .entryPoint(List.of("/bin/sh", "-c"))
+                .command(List.of("""
+                        upload() { aws s3 mv "$1" "s3://$BUCKET/$MODE/$HOSTNAME/$(basename "$1")" --only-show-errors; }
+                        trap 'for f in $(ls -1t %1$s/*.jfr %1$s/*/*.jfr 2>/dev/null); do upload "$f"; done; exit 0' TERM
+                        while true; do
+                          sleep 60 & wait $!
+                          for f in $(ls -1t %1$s/*/*.jfr 2>/dev/null | tail -n +2); do upload "$f"; done
+                        done
+                        """.formatted(RECORDING_PATH)))
+                .environment(createEnvironmentVariables(new HashMap<>(Map.of(
+                        "BUCKET", settings.getProfilingBucket(),
+                        "MODE", settings.getMode()
+                ))))
+                .cpu(RECORDING_UPLOAD_CPU)
+                .memory(RECORDING_UPLOAD_MEMORY)
+                .essential(false)
+                .mountPoints(List.of(createRecordingMountPoint()))
+                .logConfiguration(createSidecarLogConfiguration(settings, "recording-upload"))
+                .build();
+    }
+
+    private CfnTaskDefinition.MountPointProperty createRecordingMountPoint() {
+        return CfnTaskDefinition.MountPointProperty.builder()
+                .sourceVolume(RECORDING_VOLUME)
+                .containerPath(RECORDING_PATH)
+                .readOnly(false)
+                .build();
+    }
+
+    /**
+     * The log group of the application, created by the awslogs driver or, with FireLens, by the stack.
+     */
+    public String getLogGroupName(ServiceSettings settings) {
+        return settings.getLogging().getMode() == LoggingSettings.Mode.FIRELENS
+                ? "/messenger/" + settings.getMode()
+                : "/ecs/sebas-cdk-messenger-service-" + settings.getMode();
+    }
+
+    private CfnLogGroup createLogGroup(ServiceSettings settings) {
+        return CfnLogGroup.Builder
+                .create(scope, "%smessenger-%s-log-group".formatted(prefix, settings.getMode()))
+                .logGroupName(getLogGroupName(settings))
+                .retentionInDays(settings.getLogging().getRetentionDays())
+                .build();
+    }
+
+    /**
+     * The application logs to the router over the awsfirelens driver, which buffers up to the limit and then blocks
+     * instead of dropping. json/emf keeps the embedded metrics working.
+     */
+    private CfnTaskDefinition.LogConfigurationProperty createFirelensLogConfiguration(ServiceSettings settings) {
+        var options = new LinkedHashMap<String, String>();
+        options.put("Name", "cloudwatch_logs");
+        options.put("region", settings.getRegion());
+        options.put("log_group_name", getLogGroupName(settings));
+        options.put("log_stream_prefix", "ecs/");
+        options.put("auto_create_group", "false");
+        options.put("log_key", "log");
+        options.put("log_format", "json/emf");
+        options.put("log-driver-buffer-limit", String.valueOf(settings.getLogging().getBufferLimitBytes()));
+        return CfnTaskDefinition.LogConfigurationProperty.builder()
+                .logDriver("awsfirelens")
+                .options(options)
+                .build();
+    }
+
+    /**
+     * Fluent Bit with the flush interval and the drop filter in an extra configuration. On Fargate that file has to be
+     * in the container, so it is written from an environment variable before the router starts.
+     */
+    private CfnTaskDefinition.ContainerDefinitionProperty createLogRouterContainer(ServiceSettings settings) {
+        var logging = settings.getLogging();
+        var config = new StringBuilder("""
+                [SERVICE]
+                    Flush %d
+                """.formatted(logging.getFlushIntervalSeconds()));
+        if (logging.getDropPattern() != null) {
+            config.append("""
+                    [FILTER]
+                        Name grep
+                        Match *
+                        Exclude log %s
+                    """.formatted(logging.getDropPattern()));
+        }
+        var routerLogs = new LinkedHashMap<String, String>();
+        routerLogs.put("awslogs-group", getLogGroupName(settings));
+        routerLogs.put("awslogs-region", settings.getRegion());
+        routerLogs.put("awslogs-stream-prefix", "firelens");
+        return CfnTaskDefinition.ContainerDefinitionProperty.builder()
+                .name(LOG_ROUTER_CONTAINER)
+                .image(LOG_ROUTER_IMAGE)
+                .entryPoint(List.of("/bin/sh", "-c"))
+                .command(List.of("printf '%%s' \"$EXTRA_CONFIG\" > %s && exec /entrypoint.sh".formatted(LOG_ROUTER_CONFIG)))
+                .environment(createEnvironmentVariables(Map.of("EXTRA_CONFIG", config.toString())))
+                .firelensConfiguration(CfnTaskDefinition.FirelensConfigurationProperty.builder()
+                        .type("fluentbit")
+                        .options(Map.of(
+                                "enable-ecs-log-metadata", "false",
+                                "config-file-type", "file",
+                                "config-file-value", LOG_ROUTER_CONFIG
+                        ))
+                        .build())
+                .cpu(LOG_ROUTER_CPU)
+                .memory(LOG_ROUTER_MEMORY)
+                // without the router the application cannot log
+                .essential(true)
+                .logConfiguration(CfnTaskDefinition.LogConfigurationProperty.builder()
+                        .logDriver("awslogs")
+                        .options(routerLogs)
+                        .build())
+                .build();
     }
 
     private List<CfnTaskDefinition.KeyValuePairProperty> createEnvironmentVariables(Map<String, String> envVars) {
@@ -107,17 +416,20 @@ public class AwsEcsService {
                 ).toList();
     }
 
-    private CfnRole createTaskRole(String mode) {
+    private CfnRole createTaskRole(ServiceSettings settings) {
+        var managedPolicies = new ArrayList<String>();
+        managedPolicies.add("arn:aws:iam::aws:policy/service-role/AmazonECSTaskExecutionRolePolicy");
+        managedPolicies.addAll(settings.getTransport().getManagedPolicies(settings.getMode()));
+        managedPolicies.add("arn:aws:iam::aws:policy/service-role/AWSIoTLogging");
+        managedPolicies.add("arn:aws:iam::aws:policy/SecretsManagerReadWrite");
+        if (settings.isTracing()) {
+            // the collector sends the segments and reads the sampling rules
+            managedPolicies.add("arn:aws:iam::aws:policy/AWSXrayWriteOnlyAccess");
+        }
         return CfnRole.Builder
-                .create(scope, "%stask-role-for-%s-service".formatted(prefix, mode))
-                .managedPolicyArns(List.of(
-                        "arn:aws:iam::aws:policy/service-role/AmazonECSTaskExecutionRolePolicy",
-                        "arn:aws:iam::aws:policy/AmazonSNSFullAccess",
-                        "arn:aws:iam::aws:policy/AmazonSQSFullAccess",
-                        "arn:aws:iam::aws:policy/AmazonSQSReadOnlyAccess",
-                        "arn:aws:iam::aws:policy/service-role/AWSIoTLogging",
-                        "arn:aws:iam::aws:policy/SecretsManagerReadWrite"
-                ))
+                .create(scope, "%stask-role-for-%s-service".formatted(prefix, settings.getMode()))
+                .managedPolicyArns(managedPolicies)
+                .policies(createTaskPolicies(settings))
                 .assumeRolePolicyDocument(
                         Map.of(
                                 "Version", "2012-10-17",
@@ -133,6 +445,90 @@ public class AwsEcsService {
                 ).build();
     }
 
+    private List<CfnRole.PolicyProperty> createTaskPolicies(ServiceSettings settings) {
+        var policies = new ArrayList<CfnRole.PolicyProperty>();
+        var transportStatements = settings.getTransport().getPolicyStatements(settings.getMode());
+        if (!transportStatements.isEmpty()) {
+            policies.add(createTransportPolicy(transportStatements));
+        }
+        if (settings.getMetricsNamespace() != null) {
+            policies.add(createMetricsPolicy(settings));
+        }
+        if (settings.getProfilingBucket() != null) {
+            policies.add(createRecordingUploadPolicy(settings));
+        }
+        return policies.isEmpty() ? null : policies;
+    }
+
+    /**
+     * What the transport grants the service, such as writing to and reading from the stream.
+     */
+    private CfnRole.PolicyProperty createTransportPolicy(List<Map<String, Object>> statements) {
+        return CfnRole.PolicyProperty.builder()
+                .policyName("transport")
+                .policyDocument(Map.of(
+                        "Version", "2012-10-17",
+                        "Statement", statements
+                ))
+                .build();
+    }
+
+    /**
+     * Publishing in the namespace of the services only, for the metrics that are not logged (such as a flush through
+     * the collector).
+     */
+    private CfnRole.PolicyProperty createMetricsPolicy(ServiceSettings settings) {
+        return CfnRole.PolicyProperty.builder()
+                .policyName("metrics")
+                .policyDocument(Map.of(
+                        "Version", "2012-10-17",
+                        "Statement", List.of(Map.of(
+                                "Effect", "Allow",
+                                "Action", List.of("cloudwatch:PutMetricData"),
+                                "Resource", List.of("*"),
+                                "Condition", Map.of("StringEquals", Map.of("cloudwatch:namespace", settings.getMetricsNamespace()))
+                        ))
+                ))
+                .build();
+    }
+
+    /**
+     * Only writing recordings under the prefix of the service, the upload moves them so there is nothing to read.
+     */
+    private CfnRole.PolicyProperty createRecordingUploadPolicy(ServiceSettings settings) {
+        return CfnRole.PolicyProperty.builder()
+                .policyName("recording-upload")
+                .policyDocument(Map.of(
+                        "Version", "2012-10-17",
+                        "Statement", List.of(Map.of(
+                                "Effect", "Allow",
+                                "Action", List.of("s3:PutObject"),
+                                "Resource", List.of("arn:aws:s3:::%s/%s/*".formatted(settings.getProfilingBucket(), settings.getMode()))
+                        ))
+                ))
+                .build();
+    }
+
+    /**
+     * With FireLens the sidecars log with awslogs into the log group of the stack (with its retention) under their own
+     * stream prefix, otherwise into a group of their own that the driver creates.
+     */
+    private CfnTaskDefinition.LogConfigurationProperty createSidecarLogConfiguration(ServiceSettings settings, String name) {
+        if (settings.getLogging().getMode() != LoggingSettings.Mode.FIRELENS) {
+            return createLogConfiguration("sebas-cdk-%s-%s".formatted(name, settings.getMode()), settings.getRegion());
+        }
+        var options = new LinkedHashMap<String, String>();
+        options.put("awslogs-group", getLogGroupName(settings));
+        options.put("awslogs-region", settings.getRegion());
+        options.put("awslogs-stream-prefix", name);
+        options.put("mode", "non-blocking");
+        options.put("max-buffer-size", "25m");
+        return CfnTaskDefinition.LogConfigurationProperty.builder()
+                .logDriver("awslogs")
+                .options(options)
+                .build();
+    }
+
     private CfnTaskDefinition.LogConfigurationProperty createLogConfiguration(String name, String region) {
         return CfnTaskDefinition.LogConfigurationProperty.builder().
                 logDriver("awslogs").
@@ -153,9 +549,27 @@ public class AwsEcsService {
     public CfnService createService(ServiceSettings settings) {
 
         var taskDefinition = createMessengerService(settings);
+        var service = createService("%smessenger-%s-servies".formatted(prefix, settings.getMode()), getServiceName(settings.getMode()),
+                taskDefinition.getAttrTaskDefinitionArn(), settings.getDesiredCount(), settings);
+        if (settings.getMaxCapacity() > settings.getMinCapacity() || !settings.getScalingWindows().isEmpty()) {
+            createScaling(settings, service);
+        }
+        return service;
+    }
+
+    /**
+     * A single task behind the staging target group of the settings, started from the task definition of the
+     * production service. The pipeline deploys a build here and load tests it before production gets it.
+     */
+    public CfnService createStagingService(ServiceSettings settings, String taskDefinition) {
+        return createService("%smessenger-%s-staging-service".formatted(prefix, settings.getMode()), getStagingServiceName(settings.getMode()),
+                taskDefinition, 1, settings);
+    }
+
+    private CfnService createService(String id, String serviceName, String taskDefinition, int desiredCount, ServiceSettings settings) {
         return CfnService.Builder
-                .create(scope, "%smessenger-%s-servies".formatted(prefix, settings.getMode()))
-                .taskDefinition(taskDefinition.getAttrTaskDefinitionArn())
+                .create(scope, id)
+                .taskDefinition(taskDefinition)
                 .loadBalancers(List.of(
                         CfnService.LoadBalancerProperty.builder()
                                 .containerName(settings.getContainerName())
@@ -163,7 +577,7 @@ public class AwsEcsService {
                                 .targetGroupArn(settings.getTargetGroup())
                                 .build())
                 )
-                .serviceName("cool-messenger-service-%smode".formatted(settings.getMode()))
+                .serviceName(serviceName)
                 .networkConfiguration(CfnService.NetworkConfigurationProperty.builder()
                         .awsvpcConfiguration(CfnService.AwsVpcConfigurationProperty.builder()
                                 .securityGroups(List.of(settings.getSecurityGroup()))
@@ -172,16 +586,94 @@ public class AwsEcsService {
                                 .build())
                         .build()
                 )
-                .desiredCount(1)
+                .desiredCount(desiredCount)
                 .cluster(settings.getCluster())
                 .launchType("FARGATE")
                 .platformVersion("LATEST")
                 .build();
     }
 
+    public CfnScalableTarget createScaling(ServiceSettings settings, CfnService service) {
+        var scalableTarget = CfnScalableTarget.Builder
+                .create(scope, "%smessenger-%s-scalable-target".formatted(prefix, settings.getMode()))
+                .serviceNamespace("ecs")
+                .scalableDimension("ecs:service:DesiredCount")
+                .resourceId("service/%s/%s".formatted(settings.getClusterName(), getServiceName(settings.getMode())))
+                .minCapacity(settings.getMinCapacity())
+                .maxCapacity(settings.getMaxCapacity())
+                .scheduledActions(settings.getScalingWindows().isEmpty() ? null : createScheduledActions(settings))
+                .build();
+        scalableTarget.addDependency(service);
+
+        CfnScalingPolicy.Builder
+                .create(scope, "%smessenger-%s-cpu-scaling".formatted(prefix, settings.getMode()))
+                .policyName("%smessenger-%s-cpu-scaling".formatted(prefix, settings.getMode()))
+                .policyType("TargetTrackingScaling")
+                .scalingTargetId(scalableTarget.getRef())
+                .targetTrackingScalingPolicyConfiguration(
+                        CfnScalingPolicy.TargetTrackingScalingPolicyConfigurationProperty.builder()
+                                .predefinedMetricSpecification(CfnScalingPolicy.PredefinedMetricSpecificationProperty.builder()
+                                        .predefinedMetricType("ECSServiceAverageCPUUtilization")
+                                        .build())
+                                .targetValue(settings.getTargetCpuUtilization())
+                                .scaleOutCooldown(60)
+                                .scaleInCooldown(300)
+                                .build()
+                )
+                .build();
+        return scalableTarget;
+    }
+
+    /**
+     * Two actions per window, raising the capacity at its start and returning to the capacity of the service at its
+     * end. The scaling on CPU keeps working within the capacity that is set.
+     */
+    private List<CfnScalableTarget.ScheduledActionProperty> createScheduledActions(ServiceSettings settings) {
+        var actions = new ArrayList<CfnScalableTarget.ScheduledActionProperty>();
+        for (var window : settings.getScalingWindows()) {
+            actions.add(createScheduledAction("%s-%s-start".formatted(settings.getMode(), window.getName()),
+                    window.getStart(), window.getTimezone(), window.getMinCapacity(), window.getMaxCapacity()));
+            actions.add(createScheduledAction("%s-%s-end".formatted(settings.getMode(), window.getName()),
+                    window.getEnd(), window.getTimezone(), settings.getMinCapacity(), settings.getMaxCapacity()));
+        }
+        return actions;
+    }
+
+    private CfnScalableTarget.ScheduledActionProperty createScheduledAction(String name, String cron, String timezone, int minCapacity, int maxCapacity) {
+        return CfnScalableTarget.ScheduledActionProperty.builder()
+                .scheduledActionName(name)
+                .schedule("cron(%s)".formatted(cron))
+                .timezone(timezone)
+                .scalableTargetAction(CfnScalableTarget.ScalableTargetActionProperty.builder()
+                        .minCapacity(minCapacity)
+                        .maxCapacity(maxCapacity)
+                        .build())
+                .build();
+    }
+
+    public String getServiceName(String mode) {
+        return "cool-messenger-service-%smode".formatted(mode);
+    }
+
+    public String getStagingServiceName(String mode) {
+        return getServiceName(mode) + "-staging";
+    }
+
     public CfnListener createALBListener(String loadBalancer, int port) {
+        return createALBListener(prefix + "HTTP-listener", loadBalancer, port);
+    }
+
+    /**
+     * A listener of its own on the internal load balancer for the staging services, with the same paths as the
+     * production listener.
+     */
+    public CfnListener createStagingListener(String loadBalancer, int port) {
+        return createALBListener(prefix + "HTTP-staging-listener", loadBalancer, port);
+    }
+
+    private CfnListener createALBListener(String id, String loadBalancer, int port) {
         return CfnListener.Builder
-                .create(scope, prefix + "HTTP-listener")
+                .create(scope, id)
                 .port(port)
                 .loadBalancerArn(loadBalancer)
                 .protocol("HTTP")
@@ -190,10 +682,7 @@ public class AwsEcsService {
                         .fixedResponseConfig(CfnListener.FixedResponseConfigProperty.builder()
                                 .statusCode("404")
                                 .contentType("text/html")
-                                .messageBody("""
-                                        <h3>Helaas pindakaas, je prinses is in een ander kasteel.</h3>
-                                        <p>(probeer eens /send of /receive)</p>
-                                        """)
+                                .messageBody(NOT_FOUND_PAGE)
                                 .build())
                         .build()
                 ))
@@ -215,37 +704,61 @@ public class AwsEcsService {
     }
 
     public CfnListenerRule createListenerRule(String listener, String targetGroup, String mode, int prio) {
+        return createListenerRule("%slistener-rule-%s".formatted(prefix, mode), listener, targetGroup, mode, prio);
+    }
+
+    public CfnListenerRule createStagingListenerRule(String listener, String targetGroup, String mode, int prio) {
+        return createListenerRule("%sstaging-listener-rule-%s".formatted(prefix, mode), listener, targetGroup, mode, prio);
+    }
+
+    private CfnListenerRule createListenerRule(String id, String listener, String targetGroup, String mode, int prio) {
         return CfnListenerRule.Builder
-                .create(scope, "%slistener-rule-%s".formatted(prefix, mode))
+                .create(scope, id)
                 .priority(prio)
                 .listenerArn(listener)
                 .actions(List.of(CfnListenerRule.ActionProperty.builder()
                         .type("forward")
                         .targetGroupArn(targetGroup)
                         .build())
-                ).conditions(List.of(createPathPatternRule(List.of("/%s*".formatted(mode)))))
+                ).conditions(List.of(createPathPatternRule(getPathPatterns(mode))))
                 .build();
     }
 
-    public CfnListenerRule createLoading(String listener, int prio) {
-        return CfnListenerRule.Builder
-                .create(scope, "%slistener-loading-rule".formatted(prefix))
-                .priority(prio)
-                .listenerArn(listener)
-                .actions(List.of(CfnListenerRule.ActionProperty.builder()
-                        .type("fixed-response")
-                        .fixedResponseConfig(CfnListenerRule.FixedResponseConfigProperty.builder()
-                                .statusCode("404")
-                                .contentType("text/html")
-                                .messageBody("""
-                                        <h3>Sorry, we zijn nog niet zo ver...</h3>
-                                        <p>De pagina is nog aan het laden</p>
-                                        """)
-                                .build()
-                        ).build())
-                ).conditions(List.of(
-                        createPathPatternRule(List.of("/send*", "/receive*"))
-                )).build();
+    /**
+     * The mode itself and the paths below it, /send* would also take the traffic of a sendbulk mode.
+     */
+    private List<String> getPathPatterns(String mode) {
+        return List.of("/" + mode, "/%s/*".formatted(mode));
+    }
+
+    /**
+     * Rules after the service rules, a rule holds at most five path patterns so every two modes get their own rule.
+     */
+    public List<CfnListenerRule> createLoading(String listener, List<String> modes, int prio) {
+        var rules = new ArrayList<CfnListenerRule>();
+        var modesPerRule = MAX_RULE_CONDITION_VALUES / 2;
+        for (int i = 0; i < modes.size(); i += modesPerRule) {
+            var paths = modes.subList(i, Math.min(i + modesPerRule, modes.size())).stream()
+                    .flatMap(mode -> getPathPatterns(mode).stream())
+                    .toList();
+            var index = i / modesPerRule;
+            rules.add(CfnListenerRule.Builder
+                    .create(scope, "%slistener-loading-rule%s".formatted(prefix, index == 0 ? "" : "-" + index))
+                    .priority(prio + index)
+                    .listenerArn(listener)
+                    .actions(List.of(CfnListenerRule.ActionProperty.builder()
+                            .type("fixed-response")
+                            .fixedResponseConfig(CfnListenerRule.FixedResponseConfigProperty.builder()
+                                    .statusCode("404")
+                                    .contentType("text/html")
+                                    .messageBody(LOADING_PAGE)
+                                    .build()
+                            ).build())
+                    ).conditions(List.of(
+                            createPathPatternRule(paths)
+                    )).build());
+        }
+        return rules;
     }
 
     private CfnListenerRule.RuleConditionProperty createPathPatternRule(List<String> paths) {
@@ -257,13 +770,29 @@ public class AwsEcsService {
                 ).build();
     }
 
-    public CfnTargetGroup createTargetGroup(String vpc, String mode, int port, List<String> loadBalancers) {
-        var targetType = loadBalancers.isEmpty() ? "ip" : "alb";
+    public String getHealthCheckPath(String mode) {
+        return "/%s/api/v1/messenger/healthcheck".formatted(mode);
+    }
+
+    public CfnTargetGroup createTargetGroup(String vpc, String mode, int port, List<String> loadBalancers, int healthCheckIntervalSeconds) {
         var name = loadBalancers.isEmpty() ? mode : "to-balancer";
+        return createTargetGroup(prefix + "target-group-" + name, name + "-doelwit", vpc, mode, port, loadBalancers, healthCheckIntervalSeconds);
+    }
+
+    /**
+     * Named mode-staging, the -doelwit suffix would not fit the 32 characters of a target group name.
+     */
+    public CfnTargetGroup createStagingTargetGroup(String vpc, String mode, int port, int healthCheckIntervalSeconds) {
+        return createTargetGroup(prefix + "staging-target-group-" + mode, mode + "-staging", vpc, mode, port, List.of(), healthCheckIntervalSeconds);
+    }
+
+    private CfnTargetGroup createTargetGroup(String id, String name, String vpc, String mode, int port, List<String> loadBalancers,
+                                             int healthCheckIntervalSeconds) {
+        var targetType = loadBalancers.isEmpty() ? "ip" : "alb";
         var protocol = loadBalancers.isEmpty() ? "HTTP" : "TCP";
         return CfnTargetGroup.Builder
-                .create(scope, prefix + "target-group-" + name)
-                .name(name + "-doelwit")
+                .create(scope, id)
+                .name(name)
                 .targetType(targetType)
                 .ipAddressType("ipv4")
                 .port(port)
@@ -271,8 +800,8 @@ public class AwsEcsService {
                 .vpcId(vpc)
                 .healthCheckEnabled(true)
                 .healthCheckProtocol("HTTP")
-                .healthCheckPath("/%s/api/v1/messenger/healthcheck".formatted(mode))
-                .healthCheckIntervalSeconds(60)
+                .healthCheckPath(getHealthCheckPath(mode))
+                .healthCheckIntervalSeconds(healthCheckIntervalSeconds)
                 .unhealthyThresholdCount(5)
                 .healthyThresholdCount(2)
                 .targets(loadBalancers.stream().map(balancerRef ->
@@ -0,0 +1,362 @@
+package com.jcore;
+
+import com.jcore.model.DatabaseSettings;
+import com.jcore.model.EnvironmentProfile;
+import com.jcore.model.KinesisTransport;
+import com.jcore.model.LoadTestSettings;
+import com.jcore.model.MessageTransport;
+import com.jcore.model.MonitoringSettings;
+import com.jcore.model.PipelineSettings;
+import com.jcore.model.ScalingWindow;
+import com.jcore.model.ServiceDefinition;
+import com.jcore.model.SnsSqsTransport;
+import com.jcore.model.TransportSettings;
+import lombok.Getter;
+import software.amazon.awscdk.Fn;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.services.cloudwatch.CfnDashboard;
+import software.amazon.awscdk.services.ecs.CfnCluster;
+import software.amazon.awscdk.services.elasticloadbalancingv2.CfnListener;
+import software.amazon.awscdk.services.elasticloadbalancingv2.CfnTargetGroup;
+import software.amazon.awscdk.services.kinesis.CfnStream;
+import software.amazon.awscdk.services.kinesis.CfnStreamConsumer;
+import software.amazon.awscdk.services.s3.Bucket;
+import software.amazon.awscdk.services.secretsmanager.CfnSecret;
+import software.amazon.awscdk.services.sns.CfnTopic;
+import software.amazon.awscdk.services.sqs.CfnQueue;
+import software.constructs.Construct;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The resources the services run on: NAT, messaging, database, cluster, load balancers, the performance dashboard and
+ * the alarms. The settings of the pipeline are worked out here, the pipeline itself is created by the application.
+ */
+@Getter
+public class AwsFoundation {
+
+    static final String USER = "sebastiaan";
+    static final String QUEUE_NAME = "sebas-CDK-message-queue";
+    static final String STREAM_NAME = "sebas-messages";
+    // the port of the staging listener, the security group of the balancer already allows it
+    static final int STAGING_PORT = 8080;
+    private static final String GITHUB_SECRET = "{{resolve:secretsmanager:Github-access-Sebas:SecretString:%s}}";
+
+    // the queue and topic of SNS_SQS, the stream of KINESIS, null for the other transport
+    private final CfnQueue queue;
+    private final CfnTopic topic;
+    private final CfnStream stream;
+    private final MessageTransport transport;
+    // null in a secondary region, which uses the replica of the primary
+    private final CfnSecret passwordSecret;
+    // the instance based cluster, the elastic cluster or the read-only secondary of a global cluster
+    private final Construct database;
+    private final String databaseEndpoint;
+    private final String databaseId;
+    private final CfnSecret connectionString;
+    private final CfnCluster cluster;
+    private final List<ServiceDefinition> services;
+    // per mode, in the order of the service catalog
+    private final Map<String, CfnTargetGroup> targetGroups = new LinkedHashMap<>();
+    private final CfnListener listener;
+    // per mode, the staging copies the load test runs against, empty and null without a load test
+    private final Map<String, CfnTargetGroup> stagingTargetGroups = new LinkedHashMap<>();
+    private final CfnListener stagingListener;
+    private final PipelineSettings pipelineSettings;
+    private final CfnTopic alertTopic;
+    private final MonitoringSettings monitoringSettings;
+    private final CfnDashboard dashboard;
+    // null without profiling
+    private final Bucket profilingBucket;
+    // null without access logs
+    private final Bucket accessLogBucket;
+
+    public AwsFoundation(Construct scope, String prefix, AwsPlatform platform, EnvironmentProfile profile) {
+        var networkService = new AwsNetworkService(scope, prefix);
+        var ec2Service = new AwsEc2Service(scope, prefix);
+        var ecsService = new AwsEcsService(scope, prefix);
+        var queueService = new AwsQueueService(scope, prefix);
+        var databaseService = new AwsDatabaseService(scope, prefix);
+        var monitoringService = new AwsMonitoringService(scope, prefix);
+        var vpcId = platform.getVpc().getAttrVpcId();
+
+        services = ServiceCatalog.fromContext(scope);
+
+        //Queue
+        var transportSettings = profile.getTransport();
+        if (transportSettings.getType() == TransportSettings.Type.KINESIS) {
+            queue = null;
+            topic = null;
+            stream = queueService.createStream(STREAM_NAME, transportSettings);
+            transport = createKinesisTransport(queueService, transportSettings);
+        } else {
+            queue = queueService.createQueue(QUEUE_NAME,
+                    profile.getQueueReceiveWaitTimeSeconds(), profile.getQueueVisibilityTimeoutSeconds());
+            topic = queueService.createTopic(queue.getAttrArn(), profile.isTracing());
+            stream = null;
+            transport = new SnsSqsTransport(topic.getAttrTopicArn(), queue.getQueueName());
+        }
+
+        var natGateway = networkService.createNatGatewayAndAttachToSubnet(platform.getPublicSubnetOne().getSubnetId(), "");
+        // one NAT gateway per zone keeps the traffic of zone B out of zone A (and zone B up when A fails)
+        var natGatewayB = profile.isNatGatewayPerZone()
+                ? networkService.createNatGatewayAndAttachToSubnet(platform.getPublicSubnetTwo().getSubnetId(), "-B")
+                : natGateway;
+        var privateRouteA = networkService.createRoute(platform.getPrivateRouteTableA().getAttrRouteTableId(), natGateway.getAttrNatGatewayId(), false, "A");
+        var privateRouteB = networkService.createRoute(platform.getPrivateRouteTableB().getAttrRouteTableId(), natGatewayB.getAttrNatGatewayId(), false, "B");
+
+        var applicationBalancer = ec2Service.createLoadBalancer(platform.getPrivateSubnets(),
+                platform.getSecurityGroupBalancer().getAttrGroupId(),
+                true);
+
+        //var nginxInstance = ec2Service.createNginxInstance(publicSubnetOne.getSubnetId(), "NGINX", securityGroup.getAttrGroupId());
+        if (profile.getChangeStreams().isEnabled()) {
+            checkModes(profile.getChangeStreams().getConsumers(), "Change stream consumer");
+        }
+        // the primary replicates the password to the other regions, the users of a secondary come from the primary
+        passwordSecret = profile.isPrimaryRegion()
+                ? databaseService.createDatabasePassword(USER, profile.getSecondaryRegions())
+                : null;
+        var databaseSettings = DatabaseSettings.builder()
+                .mode(profile.getDatabaseMode())
+                .instanceCount(profile.getDatabaseInstanceCount())
+                .writerInstanceClass(profile.getDatabaseInstanceClass())
+                .readerInstanceClass(profile.getDatabaseReaderInstanceClass())
+                .storageType(profile.getDatabaseStorageType())
+                .maxTasks(getMaxTasks(profile))
+                .changeStreams(profile.getChangeStreams())
+                .shardCount(profile.getDatabaseShardCount())
+                .shardCapacity(profile.getDatabaseShardCapacity())
+                .shardInstanceCount(profile.getDatabaseShardInstanceCount())
+                .build();
+        if (profile.isMultiRegion() && databaseSettings.getMode() == DatabaseSettings.Mode.ELASTIC) {
+            throw new IllegalArgumentException("Several regions need a global cluster, which the elastic cluster does not support");
+        }
+        // CreateGlobalCluster and the secondary CreateDBCluster would only fail at deploy, with the primary already rolled out
+        if (profile.isMultiRegion() && (AwsDatabaseService.isBurstable(databaseSettings.getWriterInstanceClass())
+                || AwsDatabaseService.isBurstable(databaseSettings.getReaderInstanceClass()))) {
+            throw new IllegalArgumentException("Several regions need a global cluster, which does not support the burstable classes %s and %s"
+                    .formatted(databaseSettings.getWriterInstanceClass(), databaseSettings.getReaderInstanceClass()));
+        }
+        if (!profile.isPrimaryRegion()) {
+            var secondaryCluster = databaseService.createSecondaryCluster(platform.getPrivateSubnets(), platform.getSecurityGroup().getAttrId(),
+                    databaseSettings);
+            database = secondaryCluster;
+            databaseEndpoint = secondaryCluster.getResponseField("DBClusters.0.Endpoint");
+            databaseId = prefix + "data-cluster";
+            connectionString = databaseService.createSecondaryConnectionStringSecret(secondaryCluster, databaseSettings);
+        } else if (databaseSettings.getMode() == DatabaseSettings.Mode.ELASTIC) {
+            var elasticCluster = databaseService.createElasticCluster(platform.getPrivateSubnets(), platform.getSecurityGroup().getAttrId(), USER, passwordSecret,
+                    databaseSettings);
+            database = elasticCluster;
+            databaseEndpoint = elasticCluster.getAttrClusterEndpoint();
+            // the ClusterId dimension is the last part of the arn
+            databaseId = Fn.select(1, Fn.split("/", elasticCluster.getAttrClusterArn()));
+            connectionString = databaseService.createConnectionStringSecret(elasticCluster, passwordSecret, databaseSettings);
+        } else {
+            var instanceCluster = databaseService.createDatabaseInstance(platform.getPrivateSubnets(), platform.getSecurityGroup().getAttrId(), USER, passwordSecret,
+                    databaseSettings);
+            database = instanceCluster;
+            databaseEndpoint = instanceCluster.getAttrEndpoint();
+            databaseId = instanceCluster.getRef();
+            connectionString = databaseService.createConnectionStringSecret(instanceCluster, passwordSecret, databaseSettings);
+            if (profile.isMultiRegion()) {
+                databaseService.createGlobalCluster(instanceCluster);
+            }
+        }
+        if (passwordSecret != null) {
+            database.getNode().addDependency(passwordSecret);
+        }
+
+        cluster = ecsService.createCluster(profile.getContainerInsights());
+
+        listener = ecsService.createALBListener(applicationBalancer.getAttrLoadBalancerArn(), 80);
+        for (var service : services) {
+            var targetGroup = ecsService.createTargetGroup(vpcId, service.getMode(), service.getPort(), Collections.emptyList(), profile.getHealthCheckIntervalSeconds());
+            listener.addDependency(targetGroup);
+            ecsService.createListenerRule(listener.getAttrListenerArn(), targetGroup.getAttrTargetGroupArn(), service.getMode(), service.getPriority());
+            targetGroups.put(service.getMode(), targetGroup);
+        }
+        var loadTest = "true".equals(String.valueOf(scope.getNode().tryGetContext("loadtest")));
+        stagingListener = loadTest ? ecsService.createStagingListener(applicationBalancer.getAttrLoadBalancerArn(), STAGING_PORT) : null;
+        if (loadTest) {
+            for (var service : services) {
+                var targetGroup = ecsService.createStagingTargetGroup(vpcId, service.getMode(), service.getPort(), profile.getHealthCheckIntervalSeconds());
+                stagingListener.addDependency(targetGroup);
+                ecsService.createStagingListenerRule(stagingListener.getAttrListenerArn(), targetGroup.getAttrTargetGroupArn(), service.getMode(),
+                        service.getPriority());
+                stagingTargetGroups.put(service.getMode(), targetGroup);
+            }
+        }
+        var listenerRulesWaiting = ecsService.createLoading(listener.getAttrListenerArn(), List.copyOf(targetGroups.keySet()),
+                ServiceCatalog.LOADING_PRIORITY);
+
+        var reservationWindows = getCapacityReservationWindows();
+        if (!reservationWindows.isEmpty()) {
+            ec2Service.createCapacityReservationSchedules(applicationBalancer, reservationWindows);
+        }
+
+        var networkLoadBalancer = ec2Service.createLoadBalancer(platform.getPublicSubnets(),
+                platform.getSecurityGroupBalancer().getAttrGroupId(),
+                false);
+        // active/passive: the primary and, when it fails, the first secondary, the other regions are standbys
+        if (profile.isMultiRegion() && profile.getHostedZoneId() != null
+                && (profile.isPrimaryRegion() || profile.getSecondaryRegions().get(0).equals(profile.getRegion()))) {
+            networkService.createFailoverRecord(profile.getHostedZoneId(), profile.getDomainName(), profile.getRegion(), networkLoadBalancer,
+                    profile.isPrimaryRegion(), ecsService.getHealthCheckPath(services.get(0).getMode()));
+        }
+        var nlbTargetGroup = ecsService.createTargetGroup(vpcId, services.get(0).getMode(), 80, List.of(applicationBalancer.getRef()), profile.getHealthCheckIntervalSeconds());
+        var nlbListener = ecsService.createNLBListener(networkLoadBalancer.getAttrLoadBalancerArn(), nlbTargetGroup.getAttrTargetGroupArn(), 80);
+
+        if (profile.isAccessLogs()) {
+            var accessLogService = new AwsAccessLogService(scope, prefix);
+            accessLogBucket = accessLogService.createAccessLogBucket();
+            accessLogService.enableAccessLogs(applicationBalancer, accessLogBucket, true);
+            // only TLS listeners of a network load balancer write access logs, the current TCP listener does not
+            accessLogService.enableAccessLogs(networkLoadBalancer, accessLogBucket, false);
+            accessLogService.createAccessLogQueries(accessLogBucket);
+        } else {
+            accessLogBucket = null;
+        }
+
+        pipelineSettings = getPipelineSettings(scope, platform, ecsService, profile);
+        // the test runs against the staging listener of the internal load balancer, before the build reaches production
+        if (loadTest) {
+            pipelineSettings.setLoadTest(LoadTestSettings.builder()
+                    .targetUrl("http://%s:%d".formatted(applicationBalancer.getAttrDnsName(), STAGING_PORT))
+                    .stagingServices(getStagingServices(ecsService))
+                    .vpcId(vpcId)
+                    .subnets(platform.getPrivateSubnets())
+                    .securityGroup(platform.getSecurityGroup().getAttrId())
+                    .build());
+        }
+
+        // alarms go to their own topic, the messaging topic only carries messages for the queue
+        alertTopic = monitoringService.createAlertTopic((String) scope.getNode().tryGetContext("alert-email"));
+        monitoringSettings = MonitoringSettings.builder()
+                // dashboard names are global
+                .dashboardName("sebas-messenger-performance" + (profile.isMultiRegion() ? "-" + profile.getRegion() : ""))
+                .region(Stack.of(scope).getRegion())
+                .clusterName(cluster.getClusterName())
+                .applicationLoadBalancer(applicationBalancer.getAttrLoadBalancerFullName())
+                .networkLoadBalancer(networkLoadBalancer.getAttrLoadBalancerFullName())
+                .networkTargetGroup(nlbTargetGroup.getAttrTargetGroupFullName())
+                .services(getMonitoredServices())
+                .queueName(queue != null ? queue.getQueueName() : null)
+                .topicName(topic != null ? topic.getAttrTopicName() : null)
+                .streamName(stream != null ? stream.getRef() : null)
+                .streamConsumers(transport instanceof KinesisTransport kinesis ? kinesis.consumerNames() : List.of())
+                .databaseMode(databaseSettings.getMode())
+                .databaseCluster(databaseId)
+                .metricsNamespace(profile.getMetricsNamespace())
+                .natGateways(natGateway == natGatewayB
+                        ? List.of(natGateway.getAttrNatGatewayId())
+                        : List.of(natGateway.getAttrNatGatewayId(), natGatewayB.getAttrNatGatewayId()))
+                .alertTopic(alertTopic.getAttrTopicArn())
+                .build();
+        dashboard = monitoringService.createDashboard(monitoringSettings);
+        monitoringService.createAlarms(monitoringSettings);
+        profilingBucket = profile.isProfiling() ? monitoringService.createProfilingBucket() : null;
+    }
+
+    private KinesisTransport createKinesisTransport(AwsQueueService queueService, TransportSettings settings) {
+        checkModes(settings.getConsumers(), "Stream consumer");
+        var consumers = new LinkedHashMap<String, CfnStreamConsumer>();
+        if (settings.isEnhancedFanOut()) {
+            settings.getConsumers().forEach(mode -> consumers.put(mode, queueService.createStreamConsumer(stream.getAttrArn(), mode)));
+        }
+        return new KinesisTransport(stream.getRef(), stream.getAttrArn(), settings.getConsumers(), consumers);
+    }
+
+    private void checkModes(List<String> modes, String description) {
+        var catalogModes = services.stream().map(ServiceDefinition::getMode).toList();
+        for (var mode : modes) {
+            if (!catalogModes.contains(mode)) {
+                throw new IllegalArgumentException("%s %s is not a mode of the service catalog".formatted(description, mode));
+            }
+        }
+    }
+
+    /**
+     * The most tasks of all services together, including the scaling windows, each of them holds a pool of database
+     * connections.
+     */
+    private int getMaxTasks(EnvironmentProfile profile) {
+        return services.stream()
+                .mapToInt(service -> {
+                    var maxCapacity = service.getMaxCapacity() != null ? service.getMaxCapacity() : profile.getMaxCapacity();
+                    var desiredCount = service.getDesiredCount() != null ? service.getDesiredCount() : profile.getDesiredCount();
+                    var windowCapacity = service.getScalingWindows().stream().mapToInt(ScalingWindow::getMaxCapacity).max().orElse(0);
+                    return Math.max(Math.max(maxCapacity, desiredCount), windowCapacity);
+                })
+                .sum();
+    }
+
+    /**
+     * The scaling windows of all services that reserve load balancer capacity, a window shared by services (by name)
+     * reserves the most any of them asks for. Windows with the same name need the same schedule.
+     */
+    private Collection<ScalingWindow> getCapacityReservationWindows() {
+        var windows = new LinkedHashMap<String, ScalingWindow>();
+        services.stream()
+                .flatMap(service -> service.getScalingWindows().stream())
+                .filter(window -> window.getLoadBalancerCapacityUnits() != null)
+                .forEach(window -> windows.merge(window.getName(), window, (current, other) -> {
+                    if (!isSameSchedule(current, other)) {
+                        throw new IllegalArgumentException("Scaling windows named %s have different schedules, a reservation needs one"
+                                .formatted(window.getName()));
+                    }
+                    return current.getLoadBalancerCapacityUnits() >= other.getLoadBalancerCapacityUnits() ? current : other;
+                }));
+        return windows.values();
+    }
+
+    private static boolean isSameSchedule(ScalingWindow window, ScalingWindow other) {
+        return window.getStart().equals(other.getStart())
+                && window.getEnd().equals(other.getEnd())
+                && window.getTimezone().equals(other.getTimezone());
+    }
+
+    private Map<String, MonitoringSettings.Service> getMonitoredServices() {
+        var monitoredServices = new LinkedHashMap<String, MonitoringSettings.Service>();
+        services.forEach(service -> monitoredServices.put(service.getMode(), new MonitoringSettings.Service(
+                pipelineSettings.getServices().get(service.getMode()).serviceName(),
+                targetGroups.get(service.getMode()).getAttrTargetGroupFullName(),
+                service.getSlo())));
+        return monitoredServices;
+    }
+
+    private PipelineSettings getPipelineSettings(Construct scope, AwsPlatform platform, AwsEcsService ecsService, EnvironmentProfile profile) {
+        return PipelineSettings.builder()
+                .accountNr(Stack.of(scope).getAccount())
+                .region(Stack.of(scope).getRegion())
+                .repositoryName(platform.getRepository().getRepositoryName())
+                .clusterName(cluster.getClusterName())
+                .buildComputeType(profile.getBuildComputeType())
+                .batchBuild(profile.isBatchBuild())
+                .roleNameSuffix(profile.isMultiRegion() ? "-" + profile.getRegion() : "")
+                .connectionArn(GITHUB_SECRET.formatted("ConnectionArn"))
+                .fullRepositoryId(GITHUB_SECRET.formatted("Owner") + "/" + GITHUB_SECRET.formatted("Repo"))
+                .branch(GITHUB_SECRET.formatted("Branch"))
+                // the service names are fixed, so the deploy stages do not refer to the application resources
+                .services(getPipelineServices(ecsService))
+                .build();
+    }
+
+    private Map<String, String> getStagingServices(AwsEcsService ecsService) {
+        var stagingServices = new LinkedHashMap<String, String>();
+        stagingTargetGroups.keySet().forEach(mode -> stagingServices.put(mode, ecsService.getStagingServiceName(mode)));
+        return stagingServices;
+    }
+
+    private Map<String, PipelineSettings.Service> getPipelineServices(AwsEcsService ecsService) {
+        var pipelineServices = new LinkedHashMap<String, PipelineSettings.Service>();
+        services.forEach(service -> pipelineServices.put(service.getMode(), new PipelineSettings.Service(
+                ecsService.getServiceName(service.getMode()), service.getContainerName(), service.getSourcePaths())));
+        return pipelineServices;
+    }
+}
@@ -0,0 +1,19 @@
+package com.jcore;
+
+import com.jcore.model.EnvironmentProfile;
+import lombok.Getter;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.StackProps;
+import software.constructs.Construct;
+
+@Getter
+public class AwsFoundationStack extends Stack {
+
+    private final AwsFoundation foundation;
+
+    public AwsFoundationStack(final Construct scope, final String id, final StackProps props, final AwsPlatform platform,
+                              final EnvironmentProfile profile) {
+        super(scope, id, props);
+        foundation = new AwsFoundation(this, AwsCursusApp.PREFIX, platform, profile);
+    }
+}
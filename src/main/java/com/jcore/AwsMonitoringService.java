@@ -0,0 +1,396 @@
+package com.jcore;
+
+import com.jcore.model.DatabaseSettings;
+import com.jcore.model.MonitoringSettings;
+import software.amazon.awscdk.Duration;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.services.cloudwatch.CfnAlarm;
+import software.amazon.awscdk.services.cloudwatch.CfnDashboard;
+import software.amazon.awscdk.services.s3.BlockPublicAccess;
+import software.amazon.awscdk.services.s3.Bucket;
+import software.amazon.awscdk.services.s3.LifecycleRule;
+import software.amazon.awscdk.services.sns.CfnTopic;
+import software.constructs.Construct;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class AwsMonitoringService {
+
+    private static final int FULL_WIDTH = 24;
+    private static final int HALF_WIDTH = 12;
+    private static final int QUARTER_WIDTH = 6;
+    private static final int HEIGHT = 6;
+    // an alarm goes off when 3 of the last 5 minutes breach the threshold
+    private static final int EVALUATION_PERIODS = 5;
+    private static final int DATAPOINTS_TO_ALARM = 3;
+    private static final int PROFILING_RETENTION_DAYS = 14;
+
+    private final Construct scope;
+    private final String prefix;
+
+    public AwsMonitoringService(Construct scope, String prefix) {
+        this.scope = scope;
+        this.prefix = prefix;
+    }
+
+    /**
+     * A row per service (requests, response times, cpu/memory and running tasks) followed by the shared resources.
+     * The widgets have no position, CloudWatch places them left to right in the order of the list.
+     */
+    public CfnDashboard createDashboard(MonitoringSettings settings) {
+        var widgets = new ArrayList<Map<String, Object>>();
+        settings.getServices().forEach((mode, service) -> {
+            widgets.add(createTextWidget("## %s".formatted(mode)));
+            var targetGroup = List.of("TargetGroup", service.targetGroup(), "LoadBalancer", settings.getApplicationLoadBalancer());
+            var ecsService = List.of("ClusterName", settings.getClusterName(), "ServiceName", service.serviceName());
+            widgets.add(createMetricWidget(settings, "%s requests".formatted(mode), QUARTER_WIDTH, List.of(
+                    metric("AWS/ApplicationELB", "RequestCount", targetGroup, "Sum", "requests"),
+                    metric("AWS/ApplicationELB", "HTTPCode_Target_5XX_Count", targetGroup, "Sum", "5xx")
+            )));
+            widgets.add(createMetricWidget(settings, "%s response time".formatted(mode), QUARTER_WIDTH, List.of(
+                    metric("AWS/ApplicationELB", "TargetResponseTime", targetGroup, "p50", "p50"),
+                    metric("AWS/ApplicationELB", "TargetResponseTime", targetGroup, "p90", "p90"),
+                    metric("AWS/ApplicationELB", "TargetResponseTime", targetGroup, "p99", "p99")
+            )));
+            widgets.add(createMetricWidget(settings, "%s cpu and memory".formatted(mode), QUARTER_WIDTH, List.of(
+                    metric("AWS/ECS", "CPUUtilization", ecsService, "Average", "cpu %"),
+                    metric("AWS/ECS", "MemoryUtilization", ecsService, "Average", "memory %")
+            )));
+            widgets.add(createMetricWidget(settings, "%s running tasks".formatted(mode), QUARTER_WIDTH, List.of(
+                    metric("ECS/ContainerInsights", "RunningTaskCount", ecsService, "Average", "running"),
+                    metric("ECS/ContainerInsights", "DesiredTaskCount", ecsService, "Average", "desired")
+            )));
+            if (settings.getMetricsNamespace() != null) {
+                // whatever the service logs in the embedded metric format, without knowing the metric names here
+                widgets.add(createMetricWidget(settings, "%s application metrics".formatted(mode), FULL_WIDTH, List.of(
+                        search("SEARCH('{%s,LogGroup,ServiceName,ServiceType} ServiceName=\"messenger-%s\"', 'Average', %d)"
+                                .formatted(settings.getMetricsNamespace(), mode, settings.getPeriodSeconds()))
+                )));
+            }
+        });
+
+        widgets.add(createTextWidget("## shared"));
+        var networkTargetGroup = List.of("TargetGroup", settings.getNetworkTargetGroup(), "LoadBalancer", settings.getNetworkLoadBalancer());
+        var databaseMode = settings.getDatabaseMode();
+        var database = List.of(databaseMode.dimension(), settings.getDatabaseCluster());
+        widgets.add(createMetricWidget(settings, "network load balancer", HALF_WIDTH, List.of(
+                metric("AWS/NetworkELB", "NewFlowCount", List.of("LoadBalancer", settings.getNetworkLoadBalancer()), "Sum", "new flows"),
+                metric("AWS/NetworkELB", "UnHealthyHostCount", networkTargetGroup, "Maximum", "unhealthy targets")
+        )));
+        widgets.add(createMetricWidget(settings, "application load balancer", HALF_WIDTH, List.of(
+                metric("AWS/ApplicationELB", "RequestCount", List.of("LoadBalancer", settings.getApplicationLoadBalancer()), "Sum", "requests"),
+                metric("AWS/ApplicationELB", "TargetResponseTime", List.of("LoadBalancer", settings.getApplicationLoadBalancer()), "p99", "p99")
+        )));
+        if (settings.getQueueName() != null) {
+            var queue = List.of("QueueName", settings.getQueueName());
+            widgets.add(createMetricWidget(settings, "queue backlog", QUARTER_WIDTH, List.of(
+                    metric("AWS/SQS", "ApproximateNumberOfMessagesVisible", queue, "Maximum", "visible")
+            )));
+            widgets.add(createMetricWidget(settings, "queue oldest message (s)", QUARTER_WIDTH, List.of(
+                    metric("AWS/SQS", "ApproximateAgeOfOldestMessage", queue, "Maximum", "age")
+            )));
+        }
+        if (settings.getTopicName() != null) {
+            var topic = List.of("TopicName", settings.getTopicName());
+            widgets.add(createMetricWidget(settings, "topic", QUARTER_WIDTH, List.of(
+                    metric("AWS/SNS", "NumberOfMessagesPublished", topic, "Sum", "published"),
+                    metric("AWS/SNS", "NumberOfNotificationsDelivered", topic, "Sum", "delivered"),
+                    metric("AWS/SNS", "NumberOfNotificationsFailed", topic, "Sum", "failed")
+            )));
+        }
+        if (settings.getStreamName() != null) {
+            widgets.addAll(createStreamWidgets(settings));
+        }
+        widgets.add(createMetricWidget(settings, "database cpu", QUARTER_WIDTH, List.of(
+                metric(databaseMode.namespace(), databaseMode.cpuMetric(), database, "Maximum", "cpu %")
+        )));
+        widgets.add(createMetricWidget(settings, "database connections", HALF_WIDTH, List.of(
+                metric(databaseMode.namespace(), "DatabaseConnections", database, "Maximum", "connections")
+        )));
+        if (databaseMode == DatabaseSettings.Mode.INSTANCE) {
+            // read and write latency are metrics of the instance based cluster
+            widgets.add(createMetricWidget(settings, "database latency (ms)", HALF_WIDTH, List.of(
+                    metric("AWS/DocDB", "ReadLatency", database, "Average", "read"),
+                    metric("AWS/DocDB", "WriteLatency", database, "Average", "write")
+            )));
+        }
+
+        return CfnDashboard.Builder
+                .create(scope, prefix + "performance-dashboard")
+                .dashboardName(settings.getDashboardName())
+                // toJsonString resolves the tokens in the body (arns, names) when the template is synthesized
+                .dashboardBody(Stack.of(scope).toJsonString(Map.of("widgets", widgets)))
+                .build();
+    }
+
+    /**
+     * The flight recordings of the services, kept for two weeks.
+     */
+    public Bucket createProfilingBucket() {
+        return Bucket.Builder.create(scope, prefix + "profiling-recordings")
+                .blockPublicAccess(BlockPublicAccess.BLOCK_ALL)
+                .enforceSsl(true)
+                .lifecycleRules(List.of(
+                        LifecycleRule.builder()
+                                .expiration(Duration.days(PROFILING_RETENTION_DAYS))
+                                .abortIncompleteMultipartUploadAfter(Duration.days(1))
+                                .build()
+                ))
+                .build();
+    }
+
+    /**
+     * @param email address subscribed to the alerts, no subscription when null
+     */
+    public CfnTopic createAlertTopic(String email) {
+        var topic = CfnTopic.Builder
+                .create(scope, prefix + "alert-topic")
+                .topicName(prefix + "alert-topic");
+        if (email != null) {
+            topic.subscription(List.of(CfnTopic.SubscriptionProperty.builder()
+                    .endpoint(email)
+                    .protocol("email")
+                    .build()));
+        }
+        return topic.build();
+    }
+
+    /**
+     * Alarms on the objectives of every service and on the saturation of the shared resources, all notifying the
+     * alert topic when they go off and when they recover. No alarms without an alert topic.
+     */
+    public List<CfnAlarm> createAlarms(MonitoringSettings settings) {
+        var alarms = new ArrayList<CfnAlarm>();
+        if (settings.getAlertTopic() == null) {
+            return alarms;
+        }
+        var period = settings.getPeriodSeconds();
+        settings.getServices().forEach((mode, service) -> {
+            var slo = service.slo();
+            var targetGroup = List.of("TargetGroup", service.targetGroup(), "LoadBalancer", settings.getApplicationLoadBalancer());
+            var ecsService = List.of("ClusterName", settings.getClusterName(), "ServiceName", service.serviceName());
+            alarms.add(createAlarm(settings, "p99 response time of %s above %d ms".formatted(mode, slo.getP99LatencyMs()),
+                    metricAlarm(mode + "-p99-latency", "AWS/ApplicationELB", "TargetResponseTime", targetGroup, "p99", period)
+                            .threshold(slo.getP99LatencyMs() / 1000.0)));
+            alarms.add(createAlarm(settings, "more than %s%% of the %s requests fail".formatted(slo.getMaxErrorRatePercent(), mode),
+                    errorRateAlarm(mode + "-error-rate", targetGroup, period)
+                            .threshold(slo.getMaxErrorRatePercent())));
+            alarms.add(createAlarm(settings, "cpu of %s above %d%%".formatted(mode, slo.getMaxCpuUtilization()),
+                    metricAlarm(mode + "-cpu", "AWS/ECS", "CPUUtilization", ecsService, "Average", period)
+                            .threshold(slo.getMaxCpuUtilization())));
+            alarms.add(createAlarm(settings, "memory of %s above %d%%".formatted(mode, slo.getMaxMemoryUtilization()),
+                    metricAlarm(mode + "-memory", "AWS/ECS", "MemoryUtilization", ecsService, "Average", period)
+                            .threshold(slo.getMaxMemoryUtilization())));
+        });
+
+        if (settings.getQueueName() != null) {
+            alarms.add(createAlarm(settings, "oldest message older than %d s, the receivers fall behind".formatted(settings.getMaxQueueAgeSeconds()),
+                    metricAlarm("queue-age", "AWS/SQS", "ApproximateAgeOfOldestMessage", List.of("QueueName", settings.getQueueName()), "Maximum", period)
+                            .threshold(settings.getMaxQueueAgeSeconds())));
+        }
+        if (settings.getStreamName() != null) {
+            alarms.addAll(createStreamAlarms(settings, period));
+        }
+        var databaseMode = settings.getDatabaseMode();
+        var database = List.of(databaseMode.dimension(), settings.getDatabaseCluster());
+        alarms.add(createAlarm(settings, "database cpu above %d%%".formatted(settings.getMaxDatabaseCpuUtilization()),
+                metricAlarm("database-cpu", databaseMode.namespace(), databaseMode.cpuMetric(), database, "Average", period)
+                        .threshold(settings.getMaxDatabaseCpuUtilization())));
+        alarms.add(createAlarm(settings, "freeable memory of the database below %d MB".formatted(settings.getMinDatabaseFreeableMemoryBytes() / (1024 * 1024)),
+                metricAlarm("database-memory", databaseMode.namespace(), databaseMode.memoryMetric(), database, "Minimum", period)
+                        .threshold(settings.getMinDatabaseFreeableMemoryBytes())
+                        .comparisonOperator("LessThanThreshold")));
+        for (int i = 0; i < settings.getNatGateways().size(); i++) {
+            var natGateway = List.of("NatGatewayId", settings.getNatGateways().get(i));
+            // a single failed port allocation already means dropped connections
+            alarms.add(createAlarm(settings, "NAT gateway ran out of source ports",
+                    metricAlarm("nat-port-allocation" + (i == 0 ? "" : "-" + i), "AWS/NATGateway", "ErrorPortAllocation", natGateway, "Sum", period)
+                            .threshold(0)
+                            .datapointsToAlarm(1)));
+        }
+        return alarms;
+    }
+
+    /**
+     * How far the readers are behind the stream: the iterator age of the polling readers or how far every enhanced
+     * fan-out consumer is behind, with the same limit as the age of the oldest queue message.
+     */
+    private List<CfnAlarm> createStreamAlarms(MonitoringSettings settings, int period) {
+        var alarms = new ArrayList<CfnAlarm>();
+        var maxAgeMillis = settings.getMaxQueueAgeSeconds() * 1000;
+        var description = "stream readers more than %d s behind".formatted(settings.getMaxQueueAgeSeconds());
+        if (settings.getStreamConsumers().isEmpty()) {
+            alarms.add(createAlarm(settings, description,
+                    metricAlarm("stream-age", "AWS/Kinesis", "GetRecords.IteratorAgeMilliseconds", List.of("StreamName", settings.getStreamName()), "Maximum", period)
+                            .threshold(maxAgeMillis)));
+        }
+        for (int i = 0; i < settings.getStreamConsumers().size(); i++) {
+            var consumer = List.of("StreamName", settings.getStreamName(), "ConsumerName", settings.getStreamConsumers().get(i));
+            alarms.add(createAlarm(settings, description,
+                    metricAlarm("stream-age" + (i == 0 ? "" : "-" + i), "AWS/Kinesis", "SubscribeToShardEvent.MillisBehindLatest", consumer, "Maximum", period)
+                            .threshold(maxAgeMillis)));
+        }
+        return alarms;
+    }
+
+    private CfnAlarm createAlarm(MonitoringSettings settings, String description, CfnAlarm.Builder alarm) {
+        return alarm
+                .alarmDescription(description)
+                .evaluationPeriods(EVALUATION_PERIODS)
+                .treatMissingData("notBreaching")
+                .alarmActions(List.of(settings.getAlertTopic()))
+                .okActions(List.of(settings.getAlertTopic()))
+                .build();
+    }
+
+    /**
+     * An alarm above its threshold for 3 of 5 periods, the caller can still change both.
+     */
+    private CfnAlarm.Builder alarm(String name) {
+        return CfnAlarm.Builder
+                .create(scope, "%salarm-%s".formatted(prefix, name))
+                .alarmName("sebas-" + name)
+                .comparisonOperator("GreaterThanThreshold")
+                .datapointsToAlarm(DATAPOINTS_TO_ALARM);
+    }
+
+    private CfnAlarm.Builder metricAlarm(String name, String namespace, String metricName, List<String> dimensions, String stat, int period) {
+        var alarm = alarm(name)
+                .namespace(namespace)
+                .metricName(metricName)
+                .dimensions(createDimensions(dimensions).stream()
+                        .map(dimension -> CfnAlarm.DimensionProperty.builder()
+                                .name(dimension.getName())
+                                .value(dimension.getValue())
+                                .build())
+                        .toList())
+                .period(period);
+        // percentiles are extended statistics
+        return stat.startsWith("p") ? alarm.extendedStatistic(stat) : alarm.statistic(stat);
+    }
+
+    /**
+     * 5xx responses as percentage of the requests, a minute without requests counts as no errors.
+     */
+    private CfnAlarm.Builder errorRateAlarm(String name, List<String> targetGroup, int period) {
+        return alarm(name)
+                .metrics(List.of(
+                        CfnAlarm.MetricDataQueryProperty.builder()
+                                .id("errors")
+                                .metricStat(sumOf("AWS/ApplicationELB", "HTTPCode_Target_5XX_Count", targetGroup, period))
+                                .returnData(false)
+                                .build(),
+                        CfnAlarm.MetricDataQueryProperty.builder()
+                                .id("requests")
+                                .metricStat(sumOf("AWS/ApplicationELB", "RequestCount", targetGroup, period))
+                                .returnData(false)
+                                .build(),
+                        CfnAlarm.MetricDataQueryProperty.builder()
+                                .id("errorRate")
+                                .expression("IF(requests > 0, 100 * errors / requests, 0)")
+                                .label(name)
+                                .returnData(true)
+                                .build()
+                ));
+    }
+
+    private CfnAlarm.MetricStatProperty sumOf(String namespace, String metricName, List<String> dimensions, int period) {
+        return CfnAlarm.MetricStatProperty.builder()
+                .metric(CfnAlarm.MetricProperty.builder()
+                        .namespace(namespace)
+                        .metricName(metricName)
+                        .dimensions(createDimensions(dimensions))
+                        .build())
+                .period(period)
+                .stat("Sum")
+                .build();
+    }
+
+    /**
+     * @param dimensions the dimension names and values, in the notation of the dashboard
+     */
+    private List<CfnAlarm.MetricDimensionProperty> createDimensions(List<String> dimensions) {
+        var properties = new ArrayList<CfnAlarm.MetricDimensionProperty>();
+        for (int i = 0; i < dimensions.size(); i += 2) {
+            properties.add(CfnAlarm.MetricDimensionProperty.builder()
+                    .name(dimensions.get(i))
+                    .value(dimensions.get(i + 1))
+                    .build());
+        }
+        return properties;
+    }
+
+    private Map<String, Object> createTextWidget(String markdown) {
+        var widget = new LinkedHashMap<String, Object>();
+        widget.put("type", "text");
+        widget.put("width", FULL_WIDTH);
+        widget.put("height", 1);
+        widget.put("properties", Map.of("markdown", markdown));
+        return widget;
+    }
+
+    /**
+     * Writes and throttling of the stream and how far its readers are behind, the throttling only happens on a
+     * provisioned stream or when an on-demand stream grows faster than it scales.
+     */
+    private List<Map<String, Object>> createStreamWidgets(MonitoringSettings settings) {
+        var stream = List.of("StreamName", settings.getStreamName());
+        var readers = new ArrayList<List<Object>>();
+        readers.add(metric("AWS/Kinesis", "GetRecords.IteratorAgeMilliseconds", stream, "Maximum", "polling"));
+        settings.getStreamConsumers().forEach(consumer -> readers.add(metric("AWS/Kinesis", "SubscribeToShardEvent.MillisBehindLatest",
+                List.of("StreamName", settings.getStreamName(), "ConsumerName", consumer), "Maximum", consumer)));
+        return List.of(
+                createMetricWidget(settings, "stream records", QUARTER_WIDTH, List.of(
+                        metric("AWS/Kinesis", "IncomingRecords", stream, "Sum", "incoming"),
+                        metric("AWS/Kinesis", "GetRecords.Records", stream, "Sum", "polled")
+                )),
+                createMetricWidget(settings, "stream throttling", QUARTER_WIDTH, List.of(
+                        metric("AWS/Kinesis", "WriteProvisionedThroughputExceeded", stream, "Sum", "writes"),
+                        metric("AWS/Kinesis", "ReadProvisionedThroughputExceeded", stream, "Sum", "reads")
+                )),
+                createMetricWidget(settings, "stream readers behind (ms)", QUARTER_WIDTH, readers)
+        );
+    }
+
+    private Map<String, Object> createMetricWidget(MonitoringSettings settings, String title, int width, List<List<Object>> metrics) {
+        // ordered maps, so the body (and with it the template) is the same on every synth
+        var properties = new LinkedHashMap<String, Object>();
+        properties.put("title", title);
+        properties.put("region", settings.getRegion());
+        properties.put("view", "timeSeries");
+        properties.put("period", settings.getPeriodSeconds());
+        properties.put("metrics", metrics);
+
+        var widget = new LinkedHashMap<String, Object>();
+        widget.put("type", "metric");
+        widget.put("width", width);
+        widget.put("height", HEIGHT);
+        widget.put("properties", properties);
+        return widget;
+    }
+
+    private List<Object> search(String expression) {
+        var options = new LinkedHashMap<String, Object>();
+        options.put("expression", expression);
+        options.put("id", "search");
+        return List.of(options);
+    }
+
+    /**
+     * A metric in the dashboard notation: namespace, name, the dimension names and values, then the options.
+     */
+    private List<Object> metric(String namespace, String name, List<String> dimensions, String stat, String label) {
+        var metric = new ArrayList<>();
+        metric.add(namespace);
+        metric.add(name);
+        metric.addAll(dimensions);
+        var options = new LinkedHashMap<String, Object>();
+        options.put("stat", stat);
+        options.put("label", label);
+        metric.add(options);
+        return metric;
+    }
+}
@@ -0,0 +1,182 @@
+package com.jcore;
+
+import software.amazon.awscdk.CfnOutput;
+import software.amazon.awscdk.CfnTag;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.Tags;
+import software.amazon.awscdk.services.ec2.CfnEIP;
+import software.amazon.awscdk.services.ec2.CfnInternetGateway;
+import software.amazon.awscdk.services.ec2.CfnNatGateway;
+import software.amazon.awscdk.services.ec2.CfnRoute;
+import software.amazon.awscdk.services.ec2.CfnRouteTable;
+import software.amazon.awscdk.services.ec2.CfnSubnet;
+import software.amazon.awscdk.services.ec2.CfnSubnetRouteTableAssociation;
+import software.amazon.awscdk.services.ec2.CfnVPC;
+import software.amazon.awscdk.services.ec2.CfnVPCGatewayAttachment;
+import software.amazon.awscdk.services.ec2.ISubnet;
+import software.amazon.awscdk.services.ec2.Subnet;
+import software.amazon.awscdk.services.elasticloadbalancingv2.CfnLoadBalancer;
+import software.amazon.awscdk.services.route53.CfnHealthCheck;
+import software.amazon.awscdk.services.route53.CfnRecordSet;
+import software.constructs.Construct;
+
+import java.util.List;
+
+public class AwsNetworkService {
+
+    private final Construct scope;
+    private final String prefix;
+
+    public AwsNetworkService(Construct scope, String prefix) {
+        this.scope = scope;
+        this.prefix = prefix;
+    }
+
+    public CfnVPC createVpc(final String cidrBlock) {
+        var vpc = CfnVPC.Builder.create(scope, prefix + "vpc").cidrBlock(cidrBlock).build();
+        Tags.of(vpc).add("Name", prefix + "vpc");
+        CfnOutput.Builder.create(scope, "VpcCreated").value("VpcId: " + vpc.getAttrVpcId()).build();
+        return vpc;
+    }
+
+    public ISubnet createSubnet(final String cidrBlock, final String vpcId, boolean publicNetwork, String name, String zone) {
+        String label = publicNetwork ? "public" : "private";
+        String id = String.format("%s-%s-%s-%s", prefix, label, "subnet", name);
+        var cfnSubnet =
+                CfnSubnet.Builder.create(scope, id + "-cfn").
+                        availabilityZone(Stack.of(scope).getRegion() + zone).
+                        cidrBlock(cidrBlock).
+                        mapPublicIpOnLaunch(publicNetwork).
+                        vpcId(vpcId).
+                        build();
+        Tags.of(cfnSubnet).add("Name", id);
+        var subnet =
+                Subnet.fromSubnetId(scope, id, cfnSubnet.getAttrSubnetId());
+        CfnOutput.Builder.create(scope, label + "-" + name + "SubnetCreated").
+                value("SubnetId: " + subnet.getSubnetId()).build();
+        return subnet;
+    }
+
+    public CfnInternetGateway createInternetGatewayAndAttachToVpc(final String vpcId) {
+        var internetGateway =
+                CfnInternetGateway.Builder.create(scope, prefix + "igw").
+                        tags(List.of(CfnTag.builder().key("Name").value(prefix + "igw").build())).
+                        build();
+        CfnOutput.Builder.create(scope, "InternetGatewayCreated").
+                value("InternetGatewayId: " + internetGateway.getAttrInternetGatewayId()).
+                build();
+        var vpcGatewayAttachment =
+                CfnVPCGatewayAttachment.Builder.create(scope, prefix + "vpc-gateway-attachment").
+                        vpcId(vpcId).
+                        internetGatewayId(internetGateway.getAttrInternetGatewayId()).
+                        build();
+        CfnOutput.Builder.create(scope, "VpcGatewayAttachmentCreated").
+                value(String.format("VpcId: %s, InternetGatewayId: %s", vpcId, vpcGatewayAttachment.getInternetGatewayId())).
+                build();
+        return internetGateway;
+    }
+
+    public CfnRouteTable createRouteTable(
+            final CfnVPC vpc, final ISubnet subnet, final boolean publicNetwork, String name) {
+        String label = publicNetwork ? "public" : "private";
+        var routeTable =
+                CfnRouteTable.Builder.create(scope, prefix + label + "-route-table-" + name).
+                        vpcId(vpc.getAttrVpcId()).
+                        tags(List.of(CfnTag.builder().key("Name").value(label + "-route-table-" + name).build())).
+                        build();
+
+        CfnOutput.Builder.create(scope, prefix + label + "-" + name + "RouteTableCreated").
+                value("RouteTableId: " + routeTable.getAttrRouteTableId()).
+                build();
+
+        var subnetRouteTableAssociation =
+                CfnSubnetRouteTableAssociation.Builder.create(scope, prefix + label + "-" + name + "-subnet-route-table-association").
+                        subnetId(subnet.getSubnetId()).
+                        routeTableId(routeTable.getAttrRouteTableId()).
+                        build();
+
+        CfnOutput.Builder.create(scope, prefix + label + "-" + name + "SubnetRouteTableAssociationCreated").
+                value(
+                        String.format(
+                                "SubnetId: %s, RouteTableId: %s",
+                                subnetRouteTableAssociation.getSubnetId(),
+                                subnetRouteTableAssociation.getRouteTableId()
+                        )
+                ).build();
+
+        return routeTable;
+    }
+
+    public CfnRoute createRoute(final String routeTableId, String gatewayId, final boolean publicNetwork, String name) {
+        var label = publicNetwork ? "internet" : "nat";
+        var builder = CfnRoute.Builder.create(scope, prefix + label + "-" + name + "-gateway-route").
+                routeTableId(routeTableId).
+                destinationCidrBlock("0.0.0.0/0");
+        if (publicNetwork) {
+            builder.gatewayId(gatewayId);
+        } else {
+            builder.natGatewayId(gatewayId);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param name tells the gateways apart when there is one per zone, the first keeps an empty name
+     */
+    public CfnNatGateway createNatGatewayAndAttachToSubnet(String subnetId, String name) {
+        CfnEIP ip = CfnEIP.Builder.create(scope, prefix + "elasticIP" + name)
+                .build();
+
+        var natGateway = CfnNatGateway.Builder.create(scope, prefix + "NAT-gateway" + name)
+                .subnetId(subnetId)
+                .allocationId(ip.getAttrAllocationId())
+                .connectivityType("public")
+                .build();
+
+        CfnOutput.Builder.create(scope, "NatGatewayCreated" + name).value("NatGatewayID: " + natGateway.getAttrNatGatewayId()).build();
+        return natGateway;
+    }
+
+    /**
+     * One of the failover records of the domain. Only the primary region can write, so Route 53 answers with the
+     * primary while its health check passes and with the secondary after that. Nothing fails the global cluster over
+     * with it, that is the manual step of the region failover in the README.
+     *
+     * @param primary         the PRIMARY record, with a health check on the path, or the SECONDARY record
+     * @param healthCheckPath a path on the load balancer that only answers when a service behind it is healthy
+     */
+    public CfnRecordSet createFailoverRecord(String hostedZoneId, String domainName, String region, CfnLoadBalancer loadBalancer,
+                                             boolean primary, String healthCheckPath) {
+        var record = CfnRecordSet.Builder.create(scope, prefix + "failover-record")
+                .hostedZoneId(hostedZoneId)
+                .name(domainName)
+                .type("A")
+                .setIdentifier(region)
+                .failover(primary ? "PRIMARY" : "SECONDARY")
+                .aliasTarget(CfnRecordSet.AliasTargetProperty.builder()
+                        .dnsName(loadBalancer.getAttrDnsName())
+                        .hostedZoneId(loadBalancer.getAttrCanonicalHostedZoneId())
+                        .evaluateTargetHealth(true)
+                        .build());
+        if (primary) {
+            var healthCheck = createHealthCheck(loadBalancer, healthCheckPath);
+            record.healthCheckId(healthCheck.getAttrHealthCheckId());
+            // the region failover in the README points it at a missing path to keep the users on the secondary
+            CfnOutput.Builder.create(scope, "FailoverHealthCheckId").value(healthCheck.getAttrHealthCheckId()).build();
+        }
+        return record.build();
+    }
+
+    private CfnHealthCheck createHealthCheck(CfnLoadBalancer loadBalancer, String path) {
+        return CfnHealthCheck.Builder.create(scope, prefix + "failover-health-check")
+                .healthCheckConfig(CfnHealthCheck.HealthCheckConfigProperty.builder()
+                        .type("HTTP")
+                        .fullyQualifiedDomainName(loadBalancer.getAttrDnsName())
+                        .port(80)
+                        .resourcePath(path)
+                        .requestInterval(30)
+                        .failureThreshold(3)
+                        .build())
+                .build();
+    }
+}
@@ -1,18 +1,33 @@
 package com.jcore;
 
+import com.jcore.model.LoadTestSettings;
 import com.jcore.model.PipelineSettings;
+import software.amazon.awscdk.Duration;
 import software.amazon.awscdk.services.codebuild.CfnProject;
 import software.amazon.awscdk.services.codepipeline.CfnPipeline;
 import software.amazon.awscdk.services.ecr.CfnRepository;
 import software.amazon.awscdk.services.iam.CfnPolicy;
 import software.amazon.awscdk.services.iam.CfnRole;
 import software.amazon.awscdk.services.s3.Bucket;
+import software.amazon.awscdk.services.s3.LifecycleRule;
 import software.constructs.Construct;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 public class AwsPipelineService {
+    private static final String K6_VERSION = "v0.57.0";
+
     private final Construct scope;
     private final String prefix;
 
@@ -56,51 +71,293 @@ public class AwsPipelineService {
         //Create artifact bucket for CodePipeline
         Bucket artifactBucket = Bucket.Builder.create(scope, prefix + "pipeline-artifacts").build();
 
-        var codeBuildRole = createCodeBuildRole();
+        var codeBuildRole = createCodeBuildRole(settings.getRoleNameSuffix());
+        var environmentVariables = new ArrayList<>(List.of(
+                createEnv("IMAGE_REPO_NAME", settings.getRepositoryName()),
+                createEnv("AWS_ACCOUNT_ID", settings.getAccountNr()),
+                createEnv("IMAGE_TAG", "latest"),
+                createEnv("AWS_DEFAULT_REGION", settings.getRegion())
+        ));
+        // CONTAINER_NAME_SEND, CONTAINER_NAME_RECEIVE, ... for the buildspec.yml of the application repository
+        settings.getServices().forEach((mode, service) -> environmentVariables.add(
+                createEnv("CONTAINER_NAME_" + mode.toUpperCase(Locale.ROOT), service.containerName())));
         //Define CodeBuild project (builds Docker image + pushes to ECR)
         CfnProject buildProject = CfnProject.Builder.create(scope, prefix + "cdk-pipeline-project")
                 .name("pipeline-project-sebas")
                 .source(CfnProject.SourceProperty.builder()
                         .type("CODEPIPELINE") // Input comes from CodePipeline
+                        .buildSpec(settings.isBatchBuild() ? createBatchBuildSpec(settings) : null)
                         .build())
+                .buildBatchConfig(settings.isBatchBuild() ? createBatchConfig(settings, codeBuildRole) : null)
                 .artifacts(CfnProject.ArtifactsProperty.builder()
                         .type("CODEPIPELINE")
                         .build())
+                .cache(createCache(settings))
                 .environment(CfnProject.EnvironmentProperty.builder()
-                        .computeType("BUILD_GENERAL1_SMALL")
-                        .image("aws/codebuild/standard:7.0") // Ubuntu + Docker preinstalled
+                        .computeType(settings.getBuildComputeType())
+                        .image(settings.getBuildImage()) // Ubuntu + Docker preinstalled
                         .type("LINUX_CONTAINER")
                         .privilegedMode(true)
-                        .environmentVariables(List.of(
-                                createEnv("IMAGE_REPO_NAME", settings.getRepositoryName()),
-                                createEnv("AWS_ACCOUNT_ID", settings.getAccountNr()),
-                                createEnv("IMAGE_TAG", "latest"),
-                                createEnv("AWS_DEFAULT_REGION", settings.getRegion()),
-                                createEnv("CONTAINER_NAME_SEND", settings.getServices().get("send").containerName()),
-                                createEnv("CONTAINER_NAME_RECEIVE", settings.getServices().get("receive").containerName())
-                        ))
+                        .environmentVariables(environmentVariables)
                         .build())
                 .serviceRole(codeBuildRole.getAttrArn())
                 .build();
 
-        var codePipelineRole = createCodePipelineRole();
-        CfnPipeline pipeline = CfnPipeline.Builder.create(scope, prefix + "messenger-pipeline")
+        var codePipelineRole = createCodePipelineRole(settings.getRoleNameSuffix());
+        var pipeline = CfnPipeline.Builder.create(scope, prefix + "messenger-pipeline")
                 .roleArn(codePipelineRole.getAttrArn())
+                .pipelineType(settings.getPipelineType().name())
                 .artifactStore(CfnPipeline.ArtifactStoreProperty.builder()
                         .type("S3")
                         .location(artifactBucket.getBucketName())
+                        .build());
+        var stages = new ArrayList<Object>();
+        if (settings.getPipelineType() == PipelineSettings.PipelineType.V2) {
+            var changesProject = createChangesProject(settings, codeBuildRole);
+            stages.add(createConnectionSourceStage(settings));
+            stages.add(createChangesStage(changesProject.getName()));
+            pipeline
+                    .variables(List.of(
+                            CfnPipeline.VariableDeclarationProperty.builder()
+                                    .name("SERVICES")
+                                    .defaultValue("auto")
+                                    .description("Comma separated services to build and deploy, auto selects them by the changed paths")
+                                    .build()
+                    ))
+                    .triggers(List.of(createTrigger(settings)));
+        } else {
+            stages.add(createSourceStage());
+        }
+        stages.add(createBuildStage(buildProject.getName(), settings));
+        // the gate: the build goes to the staging services first, production only gets it when the test meets the budgets
+        var loadTest = settings.getLoadTest();
+        if (loadTest != null) {
+            loadTest.getStagingServices().forEach((mode, serviceName) ->
+                    stages.add(createDeployStage("Staging-" + mode, mode, serviceName, settings)));
+            var loadTestProject = createLoadTestProject(loadTest, codeBuildRole);
+            stages.add(createLoadTestStage(loadTestProject.getName()));
+        }
+        settings.getServices().forEach((mode, service) ->
+                stages.add(createDeployStage("Deploy-" + mode, mode, service.serviceName(), settings)));
+        return pipeline
+                .stages(stages)
+                .build();
+    }
+
+    /**
+     * Runs the checked in k6 script against the staging services, k6 exits non-zero when a budget is exceeded.
+     */
+    private CfnProject createLoadTestProject(LoadTestSettings loadTest, CfnRole codeBuildRole) {
+        String script;
+        try {
+            script = Files.readString(Path.of(loadTest.getScript()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Load test script %s not found".formatted(loadTest.getScript()), e);
+        }
+
+        var project = CfnProject.Builder.create(scope, prefix + "cdk-pipeline-load-test-project")
+                .name("pipeline-load-test-sebas")
+                .source(CfnProject.SourceProperty.builder()
+                        .type("CODEPIPELINE")
+                        .buildSpec("""
+                                version: 0.2
+                                phases:
+                                  install:
+                                    commands:
+                                      - curl -sSL https://github.com/grafana/k6/releases/download/%1$s/k6-%1$s-linux-amd64.tar.gz | tar xz --strip-components=1 -C /usr/local/bin
+                                  build:
+                                    commands:
+                                      - echo "$LOAD_TEST_SCRIPT" | base64 -d > messenger.js
+                                      - k6 run messenger.js
+                                """.formatted(K6_VERSION))
+                        .build())
+                .artifacts(CfnProject.ArtifactsProperty.builder()
+                        .type("CODEPIPELINE")
+                        .build())
+                .environment(CfnProject.EnvironmentProperty.builder()
+                        .computeType("BUILD_GENERAL1_MEDIUM")
+                        .image("aws/codebuild/standard:7.0")
+                        .type("LINUX_CONTAINER")
+                        .environmentVariables(List.of(
+                                createEnv("LOAD_TEST_SCRIPT", Base64.getEncoder().encodeToString(script.getBytes(StandardCharsets.UTF_8))),
+                                createEnv("TARGET_URL", loadTest.getTargetUrl()),
+                                createEnv("DURATION", loadTest.getDuration()),
+                                createEnv("VIRTUAL_USERS", String.valueOf(loadTest.getVirtualUsers())),
+                                createEnv("P50_MS", String.valueOf(loadTest.getP50LatencyMs())),
+                                createEnv("P99_MS", String.valueOf(loadTest.getP99LatencyMs())),
+                                createEnv("REQUESTS_PER_SECOND", String.valueOf(loadTest.getRequestsPerSecond()))
+                        ))
+                        .build())
+                .serviceRole(codeBuildRole.getAttrArn());
+        if (loadTest.getVpcId() != null) {
+            project.vpcConfig(CfnProject.VpcConfigProperty.builder()
+                    .vpcId(loadTest.getVpcId())
+                    .subnets(loadTest.getSubnets())
+                    .securityGroupIds(List.of(loadTest.getSecurityGroup()))
+                    .build());
+        }
+        return project.build();
+    }
+
+    /**
+     * Compares the commit with the commit of the last successful pushed execution and exports the services whose
+     * source paths changed since as SERVICES, unless the SERVICES pipeline variable names them explicitly. A push of
+     * several commits or a failed execution before it is covered that way, every service is selected when that commit
+     * is not known. Manual executions do not count, they may have deployed only the services they named.
+     */
+    private CfnProject createChangesProject(PipelineSettings settings, CfnRole codeBuildRole) {
+        var modes = settings.getServices().keySet().stream().sorted().toList();
+        var environmentVariables = new ArrayList<CfnProject.EnvironmentVariableProperty>();
+        environmentVariables.add(createEnv("ALL_SERVICES", String.join(",", modes)));
+        environmentVariables.add(createEnv("SHARED_PATHS", toPathPattern(settings.getSharedSourcePaths(), "^$")));
+        modes.forEach(mode -> environmentVariables.add(
+                createEnv("PATHS_" + mode, toPathPattern(settings.getServices().get(mode).sourcePaths(), ""))));
+
+        return CfnProject.Builder.create(scope, prefix + "cdk-pipeline-changes-project")
+                .name("pipeline-changes-sebas")
+                .source(CfnProject.SourceProperty.builder()
+                        .type("CODEPIPELINE")
+                        .buildSpec("""
+                                version: 0.2
+                                env:
+                                  exported-variables:
+                                    - SERVICES
+                                phases:
+                                  build:
+                                    commands:
+                                      - |
+                                        DEPLOYED=$(aws codepipeline list-pipeline-executions --pipeline-name "${CODEBUILD_INITIATOR#codepipeline/}" --max-items 100 \
+                                          --query "pipelineExecutionSummaries[?status=='Succeeded' && trigger.triggerType!='StartPipelineExecution'] | [0].sourceRevisions[0].revisionId" \
+                                          --output text) || DEPLOYED=""
+                                        if [ "$REQUESTED_SERVICES" != "auto" ]; then
+                                          SERVICES=$(echo "$REQUESTED_SERVICES" | tr -d ' ')
+                                        elif [ -z "$DEPLOYED" ] || [ "$DEPLOYED" = "None" ] || ! git cat-file -e "$DEPLOYED^{commit}"; then
+                                          echo "No deployed commit found, selecting every service"
+                                          SERVICES="$ALL_SERVICES"
+                                        elif ! CHANGED=$(git diff --name-only "$DEPLOYED" HEAD); then
+                                          SERVICES="$ALL_SERVICES"
+                                        elif echo "$CHANGED" | grep -qE "$SHARED_PATHS"; then
+                                          SERVICES="$ALL_SERVICES"
+                                        else
+                                          SERVICES=""
+                                          for SERVICE in $(echo "$ALL_SERVICES" | tr ',' ' '); do
+                                            if echo "$CHANGED" | grep -qE "$(printenv "PATHS_$SERVICE")"; then
+                                              SERVICES="$SERVICES,$SERVICE"
+                                            fi
+                                          done
+                                          SERVICES="${SERVICES#,}"
+                                        fi
+                                        echo "Services to build and deploy: $SERVICES"
+                                """)
+                        .build())
+                .artifacts(CfnProject.ArtifactsProperty.builder()
+                        .type("CODEPIPELINE")
+                        .build())
+                .environment(CfnProject.EnvironmentProperty.builder()
+                        .computeType("BUILD_GENERAL1_SMALL")
+                        .image(settings.getBuildImage())
+                        .type("LINUX_CONTAINER")
+                        .environmentVariables(environmentVariables)
+                        .build())
+                .serviceRole(codeBuildRole.getAttrArn())
+                .build();
+    }
+
+    private String toPathPattern(List<String> paths, String emptyPattern) {
+        if (paths.isEmpty()) {
+            return emptyPattern;
+        }
+        return paths.stream()
+                .map(path -> path.replace(".", "\\."))
+                .collect(Collectors.joining("|", "^(", ")"));
+    }
+
+    private CfnPipeline.PipelineTriggerDeclarationProperty createTrigger(PipelineSettings settings) {
+        var filePaths = new ArrayList<>(settings.getSharedSourcePaths());
+        settings.getServices().values().forEach(service -> filePaths.addAll(service.sourcePaths()));
+        var push = CfnPipeline.GitPushFilterProperty.builder()
+                .branches(CfnPipeline.GitBranchFilterCriteriaProperty.builder()
+                        .includes(List.of(settings.getBranch()))
+                        .build());
+        // a service without source paths is affected by every change, so only filter when all of them have paths
+        if (settings.getServices().values().stream().noneMatch(service -> service.sourcePaths().isEmpty())) {
+            push.filePaths(CfnPipeline.GitFilePathFilterCriteriaProperty.builder()
+                    .includes(filePaths.stream()
+                            .map(path -> path.endsWith("/") ? path + "**" : path)
+                            .distinct()
+                            .toList())
+                    .build());
+        }
+        return CfnPipeline.PipelineTriggerDeclarationProperty.builder()
+                .providerType("CodeStarSourceConnection")
+                .gitConfiguration(CfnPipeline.GitConfigurationProperty.builder()
+                        .sourceActionName("CodeStarSource")
+                        .push(List.of(push.build()))
                         .build())
-                .stages(List.of(
-                        createSourceStage(),
-                        createBuildStage(buildProject.getName())
-                ))
                 .build();
-        return pipeline;
     }
 
-    public void addDeployStepsToPipeline(CfnPipeline pipeline, PipelineSettings settings) {
-        ((List<Object>) pipeline.getStages()).add(createDeployStage("send", settings.getClusterName(), settings.getServices().get("send")));
-        ((List<Object>) pipeline.getStages()).add(createDeployStage("receive", settings.getClusterName(), settings.getServices().get("receive")));
+    private CfnProject.ProjectBuildBatchConfigProperty createBatchConfig(PipelineSettings settings, CfnRole codeBuildRole) {
+        return CfnProject.ProjectBuildBatchConfigProperty.builder()
+                .serviceRole(codeBuildRole.getAttrArn())
+                .combineArtifacts(true)
+                .timeoutInMins(60)
+                .restrictions(CfnProject.BatchRestrictionsProperty.builder()
+                        .maximumBuildsAllowed(settings.getServices().size())
+                        .computeTypesAllowed(List.of(settings.getBuildComputeType()))
+                        .build())
+                .build();
+    }
+
+    /**
+     * One build per service, each running the buildspec.yml of the application repository for a single image.
+     * The combined output artifact holds the imagedefinitions of every build in a folder named after the service.
+     */
+    private String createBatchBuildSpec(PipelineSettings settings) {
+        var buildSpec = new StringBuilder("""
+                version: 0.2
+                batch:
+                  fast-fail: true
+                  build-list:
+                """);
+        settings.getServices().entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(service -> buildSpec.append("""
+                            - identifier: %1$s
+                              buildspec: buildspec.yml
+                              env:
+                                variables:
+                                  SERVICE_MODE: %1$s
+                                  CONTAINER_NAME: %2$s
+                        """.formatted(service.getKey(), service.getValue().containerName())));
+        return buildSpec.toString();
+    }
+
+    private CfnProject.ProjectCacheProperty createCache(PipelineSettings settings) {
+        // the buildspec has to list /root/.m2/**/* under cache.paths for the maven repository to be kept
+        return switch (settings.getBuildCache()) {
+            case NONE -> CfnProject.ProjectCacheProperty.builder()
+                    .type("NO_CACHE")
+                    .build();
+            case LOCAL -> CfnProject.ProjectCacheProperty.builder()
+                    .type("LOCAL")
+                    .modes(List.of("LOCAL_DOCKER_LAYER_CACHE", "LOCAL_SOURCE_CACHE", "LOCAL_CUSTOM_CACHE"))
+                    .build();
+            case S3 -> CfnProject.ProjectCacheProperty.builder()
+                    .type("S3")
+                    .location(createCacheBucket().getBucketName() + "/maven")
+                    .build();
+        };
+    }
+
+    private Bucket createCacheBucket() {
+        return Bucket.Builder.create(scope, prefix + "pipeline-cache")
+                .lifecycleRules(List.of(
+                        LifecycleRule.builder()
+                                .expiration(Duration.days(30))
+                                .build()
+                ))
+                .build();
     }
 
     private CfnPipeline.StageDeclarationProperty createSourceStage() {
@@ -132,7 +389,74 @@ public class AwsPipelineService {
                 .build();
     }
 
-    private CfnPipeline.StageDeclarationProperty createBuildStage(String projectName) {
+    private CfnPipeline.StageDeclarationProperty createConnectionSourceStage(PipelineSettings settings) {
+        return CfnPipeline.StageDeclarationProperty.builder()
+                .name("Source")
+                .actions(List.of(
+                        CfnPipeline.ActionDeclarationProperty.builder()
+                                .name("CodeStarSource")
+                                .actionTypeId(CfnPipeline.ActionTypeIdProperty.builder()
+                                        .category("Source")
+                                        .owner("AWS")
+                                        .provider("CodeStarSourceConnection")
+                                        .version("1")
+                                        .build())
+                                .configuration(Map.of(
+                                        "ConnectionArn", settings.getConnectionArn(),
+                                        "FullRepositoryId", settings.getFullRepositoryId(),
+                                        "BranchName", settings.getBranch(),
+                                        // a full clone, the changes stage needs the parent commit
+                                        "OutputArtifactFormat", "CODEBUILD_CLONE_REF"
+                                ))
+                                .outputArtifacts(List.of(
+                                        CfnPipeline.OutputArtifactProperty.builder()
+                                                .name("SourceOutput")
+                                                .build()
+                                ))
+                                .runOrder(1)
+                                .build()
+                ))
+                .build();
+    }
+
+    private CfnPipeline.StageDeclarationProperty createChangesStage(String projectName) {
+        return CfnPipeline.StageDeclarationProperty.builder()
+                .name("Changes")
+                .actions(List.of(
+                        CfnPipeline.ActionDeclarationProperty.builder()
+                                .name("DetectChanges")
+                                .namespace("Changes")
+                                .actionTypeId(CfnPipeline.ActionTypeIdProperty.builder()
+                                        .category("Build")
+                                        .owner("AWS")
+                                        .provider("CodeBuild")
+                                        .version("1")
+                                        .build())
+                                .inputArtifacts(List.of(
+                                        CfnPipeline.InputArtifactProperty.builder()
+                                                .name("SourceOutput")
+                                                .build()
+                                ))
+                                .configuration(Map.of(
+                                        "ProjectName", projectName,
+                                        "EnvironmentVariables", createActionEnv("REQUESTED_SERVICES", "#{variables.SERVICES}")
+                                ))
+                                .runOrder(1)
+                                .build()
+                ))
+                .build();
+    }
+
+    private CfnPipeline.StageDeclarationProperty createBuildStage(String projectName, PipelineSettings settings) {
+        var configuration = new HashMap<String, String>();
+        configuration.put("ProjectName", projectName);
+        if (settings.isBatchBuild()) {
+            configuration.put("BatchEnabled", "true");
+            configuration.put("CombineArtifacts", "true");
+        }
+        if (settings.getPipelineType() == PipelineSettings.PipelineType.V2) {
+            configuration.put("EnvironmentVariables", createActionEnv("SERVICES", "#{Changes.SERVICES}"));
+        }
         return CfnPipeline.StageDeclarationProperty.builder()
                 .name("Build")
                 .actions(List.of(
@@ -149,7 +473,7 @@ public class AwsPipelineService {
                                                 .name("SourceOutput")
                                                 .build()
                                 ))
-                                .configuration(Map.of("ProjectName", projectName))
+                                .configuration(configuration)
                                 .outputArtifacts(List.of(
                                         CfnPipeline.OutputArtifactProperty.builder()
                                                 .name("BuildOutput")
@@ -161,9 +485,35 @@ public class AwsPipelineService {
                 .build();
     }
 
-    private CfnPipeline.StageDeclarationProperty createDeployStage(String mode, String clusterName, PipelineSettings.Service service) {
+    private CfnPipeline.StageDeclarationProperty createLoadTestStage(String projectName) {
         return CfnPipeline.StageDeclarationProperty.builder()
-                .name("Deploy-" + mode)
+                .name("PerformanceTest")
+                .actions(List.of(
+                        CfnPipeline.ActionDeclarationProperty.builder()
+                                .name("LoadTest")
+                                .actionTypeId(CfnPipeline.ActionTypeIdProperty.builder()
+                                        .category("Test")
+                                        .owner("AWS")
+                                        .provider("CodeBuild")
+                                        .version("1")
+                                        .build())
+                                .inputArtifacts(List.of(
+                                        CfnPipeline.InputArtifactProperty.builder()
+                                                .name("SourceOutput")
+                                                .build()
+                                ))
+                                .configuration(Map.of("ProjectName", projectName))
+                                .runOrder(1)
+                                .build()
+                ))
+                .build();
+    }
+
+    private CfnPipeline.StageDeclarationProperty createDeployStage(String name, String mode, String serviceName, PipelineSettings settings) {
+        // a combined batch artifact keeps the output of every build in a folder named after its identifier
+        var fileName = settings.isBatchBuild() ? "%1$s/imagedefinitions-%1$s.json" : "imagedefinitions-%1$s.json";
+        var stage = CfnPipeline.StageDeclarationProperty.builder()
+                .name(name)
                 .actions(List.of(
                         CfnPipeline.ActionDeclarationProperty.builder()
                                 .name("ECSDeploy")
@@ -179,18 +529,46 @@ public class AwsPipelineService {
                                                 .build()
                                 ))
                                 .configuration(Map.of(
-                                        "ClusterName", clusterName,
-                                        "ServiceName", service.serviceName(),
-                                        "FileName", "imagedefinitions-%s.json".formatted(mode)
+                                        "ClusterName", settings.getClusterName(),
+                                        "ServiceName", serviceName,
+                                        "FileName", fileName.formatted(mode)
                                 ))
                                 .runOrder(1)
                                 .build()
+                ));
+        if (settings.getPipelineType() == PipelineSettings.PipelineType.V2) {
+            stage.beforeEntry(CfnPipeline.BeforeEntryConditionsProperty.builder()
+                    .conditions(List.of(createServiceSelectedCondition(mode)))
+                    .build());
+        }
+        return stage.build();
+    }
+
+    private CfnPipeline.ConditionProperty createServiceSelectedCondition(String mode) {
+        return CfnPipeline.ConditionProperty.builder()
+                .result("SKIP")
+                .rules(List.of(
+                        CfnPipeline.RuleDeclarationProperty.builder()
+                                .name("%sSelected".formatted(mode))
+                                .ruleTypeId(CfnPipeline.RuleTypeIdProperty.builder()
+                                        .category("Rule")
+                                        .owner("AWS")
+                                        .provider("VariableCheck")
+                                        .version("1")
+                                        .build())
+                                // an entry of the comma separated list, CONTAINS would also match send in sendbulk
+                                .configuration(Map.of(
+                                        "Variable", "#{Changes.SERVICES}",
+                                        "Value", "(^|,)%s(,|$)".formatted(mode),
+                                        "Operator", "MATCHES"
+                                ))
+                                .build()
                 ))
                 .build();
     }
 
-    private CfnRole createCodeBuildRole() {
-        CfnRole codeBuildRole = createRole(prefix + "codebuild-role", "codebuild.amazonaws.com");
+    private CfnRole createCodeBuildRole(String roleNameSuffix) {
+        CfnRole codeBuildRole = createRole(prefix + "codebuild-role" + roleNameSuffix, "codebuild.amazonaws.com");
 
         var policies = List.of(
                 Map.of(
@@ -205,6 +583,45 @@ public class AwsPipelineService {
                         ),
                         "Resource", "*"
                 ),
+                Map.of(
+                        "Effect", "Allow",
+                        "Action", List.of(
+                                "codebuild:StartBuild",
+                                "codebuild:StopBuild",
+                                "codebuild:RetryBuild"
+                        ),
+                        "Resource", "*"
+                ),
+                Map.of(
+                        "Effect", "Allow",
+                        "Action", List.of(
+                                "codestar-connections:UseConnection",
+                                "codeconnections:UseConnection"
+                        ),
+                        "Resource", "*"
+                ),
+                // the changes project looks up the commit of the last successful execution
+                Map.of(
+                        "Effect", "Allow",
+                        "Action", List.of(
+                                "codepipeline:ListPipelineExecutions"
+                        ),
+                        "Resource", "*"
+                ),
+                Map.of(
+                        "Effect", "Allow",
+                        "Action", List.of(
+                                "ec2:CreateNetworkInterface",
+                                "ec2:CreateNetworkInterfacePermission",
+                                "ec2:DeleteNetworkInterface",
+                                "ec2:DescribeDhcpOptions",
+                                "ec2:DescribeNetworkInterfaces",
+                                "ec2:DescribeSecurityGroups",
+                                "ec2:DescribeSubnets",
+                                "ec2:DescribeVpcs"
+                        ),
+                        "Resource", "*"
+                ),
                 Map.of(
                         "Effect", "Allow",
                         "Action", List.of(
@@ -228,15 +645,17 @@ public class AwsPipelineService {
         return codeBuildRole;
     }
 
-    private CfnRole createCodePipelineRole() {
-        CfnRole codePipelineRole = createRole(prefix + "codepipeline-role", "codepipeline.amazonaws.com");
+    private CfnRole createCodePipelineRole(String roleNameSuffix) {
+        CfnRole codePipelineRole = createRole(prefix + "codepipeline-role" + roleNameSuffix, "codepipeline.amazonaws.com");
 
         var policies = List.of(
                 Map.of(
                         "Effect", "Allow",
                         "Action", List.of(
                                 "codebuild:StartBuild",
-                                "codebuild:BatchGetBuilds"
+                                "codebuild:BatchGetBuilds",
+                                "codebuild:StartBuildBatch",
+                                "codebuild:BatchGetBuildBatches"
                         ),
                         "Resource", "*"
                 ),
@@ -266,6 +685,13 @@ public class AwsPipelineService {
                                 "ecs:UpdateService"
                         ),
                         "Resource", "*"
+                ),
+                Map.of("Effect", "Allow",
+                        "Action", List.of(
+                                "codestar-connections:UseConnection",
+                                "codeconnections:UseConnection"
+                        ),
+                        "Resource", "*"
                 )
         );
         createPolicy(prefix + "codepipeline-policy", codePipelineRole, policies);
@@ -300,6 +726,10 @@ public class AwsPipelineService {
                 .build();
     }
 
+    private String createActionEnv(String key, String value) {
+        return "[{\"name\":\"%s\",\"value\":\"%s\",\"type\":\"PLAINTEXT\"}]".formatted(key, value);
+    }
+
     private CfnProject.EnvironmentVariableProperty createEnv(String key, String value) {
         return CfnProject.EnvironmentVariableProperty.builder()
                 .name(key)
@@ -0,0 +1,75 @@
+package com.jcore;
+
+import lombok.Getter;
+import software.amazon.awscdk.CfnOutput;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.services.ec2.CfnRouteTable;
+import software.amazon.awscdk.services.ec2.CfnSecurityGroup;
+import software.amazon.awscdk.services.ec2.CfnVPC;
+import software.amazon.awscdk.services.ec2.ISubnet;
+import software.amazon.awscdk.services.ecr.CfnRepository;
+import software.constructs.Construct;
+
+import java.util.List;
+
+/**
+ * The resources that can stay up between deploys: network, security groups and the image repository.
+ */
+@Getter
+public class AwsPlatform {
+
+    private final CfnVPC vpc;
+    private final ISubnet publicSubnetOne;
+    private final ISubnet publicSubnetTwo;
+    private final ISubnet privateSubnetOne;
+    private final ISubnet privateSubnetTwo;
+    private final CfnRouteTable privateRouteTableA;
+    private final CfnRouteTable privateRouteTableB;
+    private final CfnSecurityGroup securityGroup;
+    private final CfnSecurityGroup securityGroupBalancer;
+    private final CfnRepository repository;
+
+    public AwsPlatform(Construct scope, String prefix) {
+        var networkService = new AwsNetworkService(scope, prefix);
+        var ec2Service = new AwsEc2Service(scope, prefix);
+        var pipelineService = new AwsPipelineService(scope, prefix);
+
+        CfnOutput.Builder.create(scope, "AccountUsed").
+                description("").
+                value("Account: " + Stack.of(scope).getAccount()).
+                build();
+        CfnOutput.Builder.create(scope, "RegionUsed").
+                description("").
+                value("Region: " + Stack.of(scope).getRegion()).
+                build();
+
+        vpc = networkService.createVpc("10.0.0.0/16");
+        publicSubnetOne = networkService.createSubnet("10.0.111.0/24", vpc.getAttrVpcId(), true, "uno", "a");
+        publicSubnetTwo = networkService.createSubnet("10.0.112.0/24", vpc.getAttrVpcId(), true, "dos", "b");
+        privateSubnetOne = networkService.createSubnet("10.0.221.0/24", vpc.getAttrVpcId(), false, "uno", "a");
+        privateSubnetTwo = networkService.createSubnet("10.0.222.0/24", vpc.getAttrVpcId(), false, "dos", "b");
+
+        var gateway = networkService.createInternetGatewayAndAttachToVpc(vpc.getAttrVpcId());
+        var rt1 = networkService.createRouteTable(vpc, publicSubnetOne, true, "A");
+        var rt2 = networkService.createRouteTable(vpc, publicSubnetTwo, true, "B");
+        var publicRouteA = networkService.createRoute(rt1.getAttrRouteTableId(), gateway.getAttrInternetGatewayId(), true, "A");
+        var publicRouteB = networkService.createRoute(rt2.getAttrRouteTableId(), gateway.getAttrInternetGatewayId(), true, "B");
+        // the NAT routes are added by the foundation
+        privateRouteTableA = networkService.createRouteTable(vpc, privateSubnetOne, false, "A");
+        privateRouteTableB = networkService.createRouteTable(vpc, privateSubnetTwo, false, "B");
+
+        //var iamRole = ec2Service.getCnfRole();
+        securityGroup = ec2Service.createSecurityGroup(vpc.getAttrVpcId(), "default");
+        securityGroupBalancer = ec2Service.createSecurityGroup(vpc.getAttrVpcId(), "balancer");
+
+        repository = pipelineService.createRepository();
+    }
+
+    public List<String> getPrivateSubnets() {
+        return List.of(privateSubnetOne.getSubnetId(), privateSubnetTwo.getSubnetId());
+    }
+
+    public List<String> getPublicSubnets() {
+        return List.of(publicSubnetOne.getSubnetId(), publicSubnetTwo.getSubnetId());
+    }
+}
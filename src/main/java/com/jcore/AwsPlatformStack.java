@@ -0,0 +1,17 @@
+package com.jcore;
+
+import lombok.Getter;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.StackProps;
+import software.constructs.Construct;
+
+@Getter
+public class AwsPlatformStack extends Stack {
+
+    private final AwsPlatform platform;
+
+    public AwsPlatformStack(final Construct scope, final String id, final StackProps props) {
+        super(scope, id, props);
+        platform = new AwsPlatform(this, AwsCursusApp.PREFIX);
+    }
+}
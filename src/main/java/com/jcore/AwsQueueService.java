@@ -1,5 +1,8 @@
 package com.jcore;
 
+import com.jcore.model.TransportSettings;
+import software.amazon.awscdk.services.kinesis.CfnStream;
+import software.amazon.awscdk.services.kinesis.CfnStreamConsumer;
 import software.amazon.awscdk.services.sns.CfnTopic;
 import software.amazon.awscdk.services.sqs.CfnQueue;
 import software.amazon.awscdk.services.sqs.CfnQueuePolicy;
@@ -20,10 +23,14 @@ public class AwsQueueService {
         this.prefix = prefix;
     }
 
-    public CfnTopic createTopic(String queueEndpoint) {
+    /**
+     * @param activeTracing samples the publishes in X-Ray and passes the trace on to the queue
+     */
+    public CfnTopic createTopic(String queueEndpoint, boolean activeTracing) {
         return CfnTopic.Builder
                 .create(scope, prefix + "sns-topic")
-                .topicName(prefix + "sns-topic")
+                .topicName(getTopicName())
+                .tracingConfig(activeTracing ? "Active" : null)
                 .subscription(List.of(CfnTopic.SubscriptionProperty.builder()
                         .endpoint(queueEndpoint)
                         .protocol("sqs")
@@ -32,10 +39,16 @@ public class AwsQueueService {
                 .build();
     }
 
-    public CfnQueue createQueue(String queueName) {
+    public String getTopicName() {
+        return prefix + "sns-topic";
+    }
+
+    public CfnQueue createQueue(String queueName, int receiveWaitTimeSeconds, int visibilityTimeoutSeconds) {
         var queue = CfnQueue.Builder
                 .create(scope, prefix + "sqs-queue")
                 .queueName(queueName)
+                .receiveMessageWaitTimeSeconds(receiveWaitTimeSeconds)
+                .visibilityTimeout(visibilityTimeoutSeconds)
                 .build();
 
         var policy = CfnQueuePolicy.Builder
@@ -46,6 +59,35 @@ public class AwsQueueService {
         return queue;
     }
 
+    public CfnStream createStream(String streamName, TransportSettings settings) {
+        var provisioned = settings.getStreamMode() == TransportSettings.StreamMode.PROVISIONED;
+        return CfnStream.Builder
+                .create(scope, prefix + "kinesis-stream")
+                .name(streamName)
+                .streamModeDetails(CfnStream.StreamModeDetailsProperty.builder()
+                        .streamMode(settings.getStreamMode().name())
+                        .build())
+                // an on-demand stream sizes itself
+                .shardCount(provisioned ? settings.getShardCount() : null)
+                .retentionPeriodHours(settings.getRetentionHours())
+                .streamEncryption(CfnStream.StreamEncryptionProperty.builder()
+                        .encryptionType("KMS")
+                        .keyId("alias/aws/kinesis")
+                        .build())
+                .build();
+    }
+
+    /**
+     * An enhanced fan-out consumer, the stream pushes the records of every shard to it over its own throughput.
+     */
+    public CfnStreamConsumer createStreamConsumer(String streamArn, String mode) {
+        return CfnStreamConsumer.Builder
+                .create(scope, prefix + "kinesis-consumer-" + mode)
+                .consumerName(prefix + mode)
+                .streamArn(streamArn)
+                .build();
+    }
+
     private Map<String, Object> createPolicyDocument(String queueArn) {
         var principal = new HashMap<String, Object>();
         principal.put("Service", "sns.amazonaws.com");
@@ -66,6 +108,4 @@ public class AwsQueueService {
 
         return policyDocument;
     }
-
-
 }
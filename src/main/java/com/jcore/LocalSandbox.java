@@ -0,0 +1,302 @@
+package com.jcore;
+
+import com.jcore.model.EnvironmentProfile;
+import com.jcore.model.KinesisTransport;
+import com.jcore.model.MessageTransport;
+import com.jcore.model.ServiceDefinition;
+import com.jcore.model.ServiceSettings;
+import com.jcore.model.SnsSqsTransport;
+import com.jcore.model.TransportSettings;
+import software.constructs.Construct;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A docker compose environment with the services of the catalog: LocalStack for the transport and Secrets Manager,
+ * MongoDB for DocumentDB and nginx for the listener rules of the load balancer. Every service gets the variables and
+ * the cpu and memory of its task definition, the sidecars (collector, log router, recording upload) stay in AWS.
+ */
+public class LocalSandbox {
+
+    private static final String ACCOUNT = "000000000000";
+    private static final String DEFAULT_REGION = "us-east-1";
+    // DocumentDB 5.0 speaks the protocol of MongoDB 5.0, change streams need a replica set
+    private static final String MONGO_IMAGE = "mongo:5.0";
+    private static final String MONGO_URI = "mongodb://mongo:27017/?replicaSet=rs0";
+    private static final String LOCALSTACK_IMAGE = "localstack/localstack:3";
+    private static final String LOCALSTACK_ENDPOINT = "http://localstack:4566";
+    private static final String LOCALSTACK_READY = "/tmp/sandbox-ready";
+    private static final String ROUTER = "router";
+    private static final String ROUTER_IMAGE = "nginx:alpine";
+    private static final int ROUTER_PORT = 8080;
+    private static final String NETWORK = "messenger-sandbox";
+
+    private final EnvironmentProfile profile;
+    private final List<ServiceDefinition> services;
+    private final AwsEcsService ecsService;
+    private final AwsDatabaseService databaseService;
+    private final String region;
+    private final String topicName;
+
+    public LocalSandbox(Construct scope, String prefix, EnvironmentProfile profile) {
+        this.profile = profile;
+        this.services = ServiceCatalog.fromContext(scope);
+        this.ecsService = new AwsEcsService(scope, prefix);
+        this.databaseService = new AwsDatabaseService(scope, prefix);
+        // a sandbox of a profile with several regions stands in for the primary
+        this.region = profile.getRegion() != null ? profile.getRegion() : DEFAULT_REGION;
+        this.topicName = new AwsQueueService(scope, prefix).getTopicName();
+    }
+
+    /**
+     * Writes compose.yaml, the nginx configuration and the LocalStack init script to the directory, start it with
+     * {@code docker compose up} in that directory.
+     */
+    public void write(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            Files.writeString(directory.resolve("compose.yaml"), createCompose());
+            Files.writeString(directory.resolve("nginx.conf"), createRouterConfig());
+            var init = directory.resolve("localstack-init.sh");
+            Files.writeString(init, createLocalStackInit());
+            init.toFile().setExecutable(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Local sandbox not written to %s".formatted(directory), e);
+        }
+    }
+
+    String createCompose() {
+        var composeServices = new LinkedHashMap<String, Object>();
+        composeServices.put("mongo", createMongo());
+        composeServices.put("localstack", createLocalStack());
+        for (var definition : services) {
+            if (composeServices.containsKey(definition.getMode()) || ROUTER.equals(definition.getMode())) {
+                throw new IllegalArgumentException("Service mode %s is taken by the local sandbox".formatted(definition.getMode()));
+            }
+            composeServices.put(definition.getMode(), createService(AwsApplication.getServiceSettings(definition, profile)
+                    .region(region)
+                    .transport(createTransport())
+                    .build()));
+        }
+        composeServices.put(ROUTER, createRouter());
+
+        var yaml = new StringBuilder("# Generated by LocalSandbox from the stack model, do not edit\n");
+        var compose = new LinkedHashMap<String, Object>();
+        compose.put("services", composeServices);
+        // a fixed name, so loadtest/run-local.sh can join it
+        compose.put("networks", Map.of("default", Map.of("name", NETWORK)));
+        appendYaml(yaml, compose, 0);
+        return yaml.toString();
+    }
+
+    private Map<String, Object> createMongo() {
+        var mongo = new LinkedHashMap<String, Object>();
+        mongo.put("image", MONGO_IMAGE);
+        mongo.put("command", List.of("--replSet", "rs0", "--bind_ip_all"));
+        // the single member replica set is initiated by the first health check
+        mongo.put("healthcheck", createHealthCheck(List.of("CMD", "mongosh", "--quiet", "--eval",
+                "try { rs.status().ok } catch (e) { rs.initiate({_id: 'rs0', members: [{host: 'mongo:27017'}]}).ok }")));
+        return mongo;
+    }
+
+    private Map<String, Object> createLocalStack() {
+        var services = new StringBuilder("sns,sqs,secretsmanager");
+        if (profile.getTransport().getType() == TransportSettings.Type.KINESIS) {
+            services.append(",kinesis");
+        }
+        var localStack = new LinkedHashMap<String, Object>();
+        localStack.put("image", LOCALSTACK_IMAGE);
+        var environment = new LinkedHashMap<String, Object>();
+        environment.put("SERVICES", services.toString());
+        environment.put("AWS_DEFAULT_REGION", region);
+        localStack.put("environment", environment);
+        localStack.put("volumes", List.of("./localstack-init.sh:/etc/localstack/init/ready.d/init.sh:ro"));
+        localStack.put("healthcheck", createHealthCheck(List.of("CMD", "test", "-f", LOCALSTACK_READY)));
+        return localStack;
+    }
+
+    private Map<String, Object> createService(ServiceSettings settings) {
+        var environment = new TreeMap<>(ecsService.createApplicationVariables(settings));
+        // the task gets the connection string from Secrets Manager, the sandbox database has no users
+        environment.put("SPRING_DATA_MONGODB_URI", MONGO_URI);
+        environment.put("AWS_REGION", settings.getRegion());
+        environment.put("AWS_ENDPOINT_URL", LOCALSTACK_ENDPOINT);
+        environment.put("SPRING_CLOUD_AWS_ENDPOINT", LOCALSTACK_ENDPOINT);
+        environment.put("AWS_ACCESS_KEY_ID", "test");
+        environment.put("AWS_SECRET_ACCESS_KEY", "test");
+
+        var dependencies = new LinkedHashMap<String, Object>();
+        dependencies.put("mongo", Map.of("condition", "service_healthy"));
+        dependencies.put("localstack", Map.of("condition", "service_healthy"));
+
+        var service = new LinkedHashMap<String, Object>();
+        // the pipeline pushes the image, locally it is the image built by the application repository
+        service.put("image", settings.getContainerName() + ":latest");
+        service.put("environment", environment);
+        service.put("depends_on", dependencies);
+        // the cpu units of the task definition, 1024 to a vCPU
+        var limits = new LinkedHashMap<String, Object>();
+        limits.put("cpus", BigDecimal.valueOf(settings.getCpu()).divide(BigDecimal.valueOf(1024)).stripTrailingZeros().toPlainString());
+        limits.put("memory", settings.getMemory() + "M");
+        service.put("deploy", Map.of("resources", Map.of("limits", limits)));
+        return service;
+    }
+
+    private Map<String, Object> createRouter() {
+        var router = new LinkedHashMap<String, Object>();
+        router.put("image", ROUTER_IMAGE);
+        router.put("ports", List.of("%d:%d".formatted(ROUTER_PORT, ROUTER_PORT)));
+        router.put("volumes", List.of("./nginx.conf:/etc/nginx/conf.d/default.conf:ro"));
+        router.put("depends_on", services.stream().map(ServiceDefinition::getMode).toList());
+        return router;
+    }
+
+    private static Map<String, Object> createHealthCheck(List<String> test) {
+        var healthCheck = new LinkedHashMap<String, Object>();
+        healthCheck.put("test", test);
+        healthCheck.put("interval", "5s");
+        healthCheck.put("timeout", "10s");
+        healthCheck.put("retries", 20);
+        return healthCheck;
+    }
+
+    /**
+     * The local counterpart of the transport of the foundation, without enhanced fan-out: the consumer arns only
+     * exist once a consumer is registered.
+     */
+    private MessageTransport createTransport() {
+        var settings = profile.getTransport();
+        if (settings.getType() == TransportSettings.Type.KINESIS) {
+            return new KinesisTransport(AwsFoundation.STREAM_NAME, getStreamArn(), settings.getConsumers(), Map.of());
+        }
+        return new SnsSqsTransport(getTopicArn(), AwsFoundation.QUEUE_NAME);
+    }
+
+    /**
+     * The listener rules of the application load balancer: /mode and the paths below it per mode, the loading page
+     * while its service is not up and the not found page for other paths.
+     */
+    String createRouterConfig() {
+        var config = new StringBuilder("""
+                # Generated by LocalSandbox from the listener rules of the application load balancer, do not edit
+                server {
+                    listen %d;
+                    # docker DNS, resolved per request so the router starts before the services
+                    resolver 127.0.0.11 valid=10s;
+
+                """.formatted(ROUTER_PORT));
+        for (var definition : services) {
+            config.append("""
+                        location ~ ^/%1$s(/|$) {
+                            set $%1$s http://%1$s:%2$d;
+                            proxy_pass $%1$s;
+                            proxy_set_header Host $host;
+                            error_page 502 503 504 = @loading;
+                        }
+
+                    """.formatted(definition.getMode(), definition.getPort()));
+        }
+        config.append("""
+                    location @loading {
+                        default_type text/html;
+                        return 404 '%s';
+                    }
+
+                    location / {
+                        default_type text/html;
+                        return 404 '%s';
+                    }
+                }
+                """.formatted(AwsEcsService.LOADING_PAGE, AwsEcsService.NOT_FOUND_PAGE));
+        return config.toString();
+    }
+
+    /**
+     * The messaging resources and secrets of the foundation stack, LocalStack runs it once it is ready.
+     */
+    String createLocalStackInit() {
+        var script = new StringBuilder("""
+                #!/bin/bash
+                # Generated by LocalSandbox from the foundation stack, do not edit
+                set -euo pipefail
+
+                """);
+        var transport = profile.getTransport();
+        if (transport.getType() == TransportSettings.Type.KINESIS) {
+            var streamMode = transport.getStreamMode() == TransportSettings.StreamMode.PROVISIONED
+                    ? "--shard-count %d".formatted(transport.getShardCount())
+                    : "--stream-mode-details StreamMode=ON_DEMAND";
+            script.append("awslocal kinesis create-stream --stream-name %s %s\n".formatted(quote(AwsFoundation.STREAM_NAME), streamMode));
+            script.append("awslocal kinesis wait stream-exists --stream-name %s\n".formatted(quote(AwsFoundation.STREAM_NAME)));
+        } else {
+            script.append("awslocal sqs create-queue --queue-name %s --attributes ReceiveMessageWaitTimeSeconds=%d,VisibilityTimeout=%d\n"
+                    .formatted(quote(AwsFoundation.QUEUE_NAME), profile.getQueueReceiveWaitTimeSeconds(), profile.getQueueVisibilityTimeoutSeconds()));
+            script.append("awslocal sns create-topic --name %s\n".formatted(quote(topicName)));
+            script.append("awslocal sns subscribe --topic-arn %s --protocol sqs --notification-endpoint %s\n"
+                    .formatted(quote(getTopicArn()), quote("arn:aws:sqs:%s:%s:%s".formatted(region, ACCOUNT, AwsFoundation.QUEUE_NAME))));
+        }
+        script.append("awslocal secretsmanager create-secret --name %s --secret-string %s\n".formatted(
+                quote(databaseService.getPasswordSecretName()),
+                quote("{\"username\":\"%s\",\"password\":\"sandbox\"}".formatted(AwsFoundation.USER))));
+        script.append("awslocal secretsmanager create-secret --name %s --secret-string %s\n".formatted(
+                quote(databaseService.getConnectionStringSecretName()), quote(MONGO_URI)));
+        script.append("touch ").append(LOCALSTACK_READY).append('\n');
+        return script.toString();
+    }
+
+    private String getTopicArn() {
+        return "arn:aws:sns:%s:%s:%s".formatted(region, ACCOUNT, topicName);
+    }
+
+    private String getStreamArn() {
+        return "arn:aws:kinesis:%s:%s:stream/%s".formatted(region, ACCOUNT, AwsFoundation.STREAM_NAME);
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Block style yaml with every scalar double quoted (a JSON string is a valid yaml scalar), enough for compose.
+     */
+    private static void appendYaml(StringBuilder yaml, Map<String, ?> map, int indent) {
+        map.forEach((key, value) -> {
+            yaml.append("  ".repeat(indent)).append(key).append(':');
+            if (value instanceof Map<?, ?> nested) {
+                yaml.append('\n');
+                appendYaml(yaml, (Map<String, ?>) nested, indent + 1);
+            } else if (value instanceof List<?> list) {
+                yaml.append('\n');
+                list.forEach(item -> yaml.append("  ".repeat(indent + 1)).append("- ").append(toScalar(item)).append('\n'));
+            } else {
+                yaml.append(' ').append(toScalar(value)).append('\n');
+            }
+        });
+    }
+
+    private static String toScalar(Object value) {
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        }
+        var scalar = new StringBuilder("\"");
+        for (var c : value.toString().toCharArray()) {
+            switch (c) {
+                case '"' -> scalar.append("\\\"");
+                case '\\' -> scalar.append("\\\\");
+                case '\n' -> scalar.append("\\n");
+                // compose interpolates ${...}, $$ is a literal $
+                case '$' -> scalar.append("$$");
+                default -> scalar.append(c);
+            }
+        }
+        return scalar.append('"').toString();
+    }
+}
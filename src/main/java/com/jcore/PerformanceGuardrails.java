@@ -0,0 +1,134 @@
+package com.jcore;
+
+import com.jcore.model.GuardrailSettings;
+import org.jetbrains.annotations.NotNull;
+import software.amazon.awscdk.Annotations;
+import software.amazon.awscdk.IAspect;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.Token;
+import software.amazon.awscdk.services.applicationautoscaling.CfnScalableTarget;
+import software.amazon.awscdk.services.docdb.CfnDBInstance;
+import software.amazon.awscdk.services.ecs.CfnService;
+import software.amazon.awscdk.services.ecs.CfnTaskDefinition;
+import software.amazon.awscdk.services.elasticloadbalancingv2.CfnTargetGroup;
+import software.amazon.awscdk.services.sqs.CfnQueue;
+import software.constructs.Construct;
+import software.constructs.IConstruct;
+
+import java.util.Map;
+
+/**
+ * Reports performance anti-patterns in the synthesized resources. The rules come from the performance-guardrails
+ * context: the values under "default", overridden by the ones under the profile of the stack.
+ * Errors stop cdk synth, warnings are only printed.
+ */
+public class PerformanceGuardrails implements IAspect {
+
+    private final GuardrailSettings settings;
+
+    public PerformanceGuardrails(GuardrailSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * @param profile the profile whose rules apply on top of the default ones, null for only the default rules
+     */
+    public static PerformanceGuardrails fromContext(Construct scope, String profile) {
+        var context = (Map<String, Object>) scope.getNode().tryGetContext("performance-guardrails");
+        var settings = GuardrailSettings.builder().build();
+        if (context != null) {
+            settings = apply(settings, (Map<String, Object>) context.get("default"));
+            if (profile != null) {
+                settings = apply(settings, (Map<String, Object>) context.get(profile));
+            }
+        }
+        return new PerformanceGuardrails(settings);
+    }
+
+    private static GuardrailSettings apply(GuardrailSettings settings, Map<String, Object> rules) {
+        if (rules == null) {
+            return settings;
+        }
+        var builder = settings.toBuilder();
+        rules.forEach((rule, value) -> {
+            switch (rule) {
+                case "severity" -> builder.severity(GuardrailSettings.Severity.valueOf(((String) value).toUpperCase()));
+                case "requireScaling" -> builder.requireScaling((Boolean) value);
+                case "maxHealthCheckIntervalSeconds" -> builder.maxHealthCheckIntervalSeconds(((Number) value).intValue());
+                case "requireLongPolling" -> builder.requireLongPolling((Boolean) value);
+                case "forbidBurstableDatabase" -> builder.forbidBurstableDatabase((Boolean) value);
+                case "minTaskCpu" -> builder.minTaskCpu(((Number) value).intValue());
+                default -> throw new IllegalArgumentException("Unknown performance guardrail: " + rule);
+            }
+        });
+        return builder.build();
+    }
+
+    @Override
+    public void visit(@NotNull IConstruct node) {
+        if (node instanceof CfnService service) {
+            checkScaling(service);
+        } else if (node instanceof CfnTargetGroup targetGroup) {
+            checkHealthCheck(targetGroup);
+        } else if (node instanceof CfnQueue queue) {
+            checkLongPolling(queue);
+        } else if (node instanceof CfnDBInstance instance) {
+            checkDatabaseClass(instance);
+        } else if (node instanceof CfnTaskDefinition taskDefinition) {
+            checkTaskCpu(taskDefinition);
+        }
+    }
+
+    private void checkScaling(CfnService service) {
+        if (!settings.isRequireScaling() || service.getServiceName() == null) {
+            return;
+        }
+        var scaled = Stack.of(service).getNode().findAll().stream()
+                .filter(CfnScalableTarget.class::isInstance)
+                .map(target -> ((CfnScalableTarget) target).getResourceId())
+                .anyMatch(resourceId -> resourceId.endsWith("/" + service.getServiceName()));
+        if (!scaled) {
+            report(service, "no-scaling", "Service %s has no scaling target, it stays at its desired count under load"
+                    .formatted(service.getServiceName()));
+        }
+    }
+
+    private void checkHealthCheck(CfnTargetGroup targetGroup) {
+        var interval = targetGroup.getHealthCheckIntervalSeconds();
+        if (interval != null && interval.intValue() > settings.getMaxHealthCheckIntervalSeconds()) {
+            report(targetGroup, "health-check-interval", "Target group %s checks health every %ss (max %ss), new tasks take that long to get traffic"
+                    .formatted(targetGroup.getName(), interval, settings.getMaxHealthCheckIntervalSeconds()));
+        }
+    }
+
+    private void checkLongPolling(CfnQueue queue) {
+        var waitTime = queue.getReceiveMessageWaitTimeSeconds();
+        if (settings.isRequireLongPolling() && (waitTime == null || waitTime.intValue() == 0)) {
+            report(queue, "short-polling", "Queue %s uses short polling, set ReceiveMessageWaitTimeSeconds to wait for messages"
+                    .formatted(queue.getQueueName()));
+        }
+    }
+
+    private void checkDatabaseClass(CfnDBInstance instance) {
+        if (settings.isForbidBurstableDatabase() && instance.getDbInstanceClass().startsWith("db.t")) {
+            report(instance, "burstable-database", "Database instance %s uses burstable class %s, it is throttled once the CPU credits run out"
+                    .formatted(instance.getDbInstanceIdentifier(), instance.getDbInstanceClass()));
+        }
+    }
+
+    private void checkTaskCpu(CfnTaskDefinition taskDefinition) {
+        var cpu = taskDefinition.getCpu();
+        if (cpu != null && !Token.isUnresolved(cpu) && Integer.parseInt(cpu) < settings.getMinTaskCpu()) {
+            report(taskDefinition, "task-cpu", "Task definition has %s CPU units, the minimum is %d"
+                    .formatted(cpu, settings.getMinTaskCpu()));
+        }
+    }
+
+    private void report(IConstruct node, String rule, String message) {
+        if (settings.getSeverity() == GuardrailSettings.Severity.ERROR) {
+            Annotations.of(node).addError(message);
+        } else {
+            Annotations.of(node).addWarningV2("performance:" + rule, message);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.jcore;
+
+import com.jcore.model.ChangeStreamSettings;
+import com.jcore.model.DatabaseSettings;
+import com.jcore.model.EnvironmentProfile;
+import com.jcore.model.LoggingSettings;
+import com.jcore.model.TransportSettings;
+import software.constructs.Construct;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads the profiles selected with -c profile=perf (or several, -c profile=dev,perf) from the profiles context.
+ */
+public final class ProfileLoader {
+
+    private ProfileLoader() {
+    }
+
+    /**
+     * @return the selected profiles, or only the default profile (without a name) when none is selected
+     */
+    public static List<EnvironmentProfile> selected(Construct scope) {
+        var selection = (String) scope.getNode().tryGetContext("profile");
+        if (selection == null || selection.isBlank()) {
+            return List.of(EnvironmentProfile.builder().build());
+        }
+        return Arrays.stream(selection.split(","))
+                .map(String::trim)
+                .map(name -> load(scope, name))
+                .toList();
+    }
+
+    public static EnvironmentProfile load(Construct scope, String name) {
+        var profiles = (Map<String, Object>) scope.getNode().tryGetContext("profiles");
+        if (profiles == null || !profiles.containsKey(name)) {
+            throw new IllegalArgumentException("Unknown profile: " + name);
+        }
+        var builder = EnvironmentProfile.builder().name(name);
+        ((Map<String, Object>) profiles.get(name)).forEach((key, value) -> {
+            switch (key) {
+                case "account" -> builder.account((String) value);
+                case "region" -> builder.region((String) value);
+                case "regions" -> builder.regions((List<String>) value);
+                case "domainName" -> builder.domainName((String) value);
+                case "hostedZoneId" -> builder.hostedZoneId((String) value);
+                case "taskCpu" -> builder.taskCpu(((Number) value).intValue());
+                case "taskMemory" -> builder.taskMemory(((Number) value).intValue());
+                case "desiredCount" -> builder.desiredCount(((Number) value).intValue());
+                case "minCapacity" -> builder.minCapacity(((Number) value).intValue());
+                case "maxCapacity" -> builder.maxCapacity(((Number) value).intValue());
+                case "targetCpuUtilization" -> builder.targetCpuUtilization(((Number) value).intValue());
+                case "healthCheckIntervalSeconds" -> builder.healthCheckIntervalSeconds(((Number) value).intValue());
+                case "databaseMode" -> builder.databaseMode(DatabaseSettings.Mode.valueOf(((String) value).toUpperCase(Locale.ROOT)));
+                case "databaseInstanceCount" -> builder.databaseInstanceCount(((Number) value).intValue());
+                case "databaseInstanceClass" -> builder.databaseInstanceClass((String) value);
+                case "databaseReaderInstanceClass" -> builder.databaseReaderInstanceClass((String) value);
+                case "databaseStorageType" -> builder.databaseStorageType(DatabaseSettings.StorageType.valueOf(((String) value).toUpperCase(Locale.ROOT)));
+                case "changeStreams" -> builder.changeStreams(loadChangeStreams((Map<String, Object>) value, name));
+                case "databaseShardCount" -> builder.databaseShardCount(((Number) value).intValue());
+                case "databaseShardCapacity" -> builder.databaseShardCapacity(((Number) value).intValue());
+                case "databaseShardInstanceCount" -> builder.databaseShardInstanceCount(((Number) value).intValue());
+                case "natGatewayPerZone" -> builder.natGatewayPerZone((Boolean) value);
+                case "accessLogs" -> builder.accessLogs((Boolean) value);
+                case "transport" -> builder.transport(loadTransport((Map<String, Object>) value, name));
+                case "queueReceiveWaitTimeSeconds" -> builder.queueReceiveWaitTimeSeconds(((Number) value).intValue());
+                case "queueVisibilityTimeoutSeconds" -> builder.queueVisibilityTimeoutSeconds(((Number) value).intValue());
+                case "containerInsights" -> builder.containerInsights(EnvironmentProfile.ContainerInsights.valueOf(((String) value).toUpperCase(Locale.ROOT)));
+                case "logging" -> builder.logging(loadLogging((Map<String, Object>) value, name));
+                case "metricsNamespace" -> builder.metricsNamespace((String) value);
+                case "tracing" -> builder.tracing((Boolean) value);
+                case "tracingSamplingRate" -> builder.tracingSamplingRate(((Number) value).doubleValue());
+                case "profiling" -> builder.profiling((Boolean) value);
+                case "buildComputeType" -> builder.buildComputeType((String) value);
+                case "batchBuild" -> builder.batchBuild((Boolean) value);
+                default -> throw new IllegalArgumentException("Unknown setting %s in profile %s".formatted(key, name));
+            }
+        });
+        return builder.build();
+    }
+
+    private static ChangeStreamSettings loadChangeStreams(Map<String, Object> changeStreams, String name) {
+        var builder = ChangeStreamSettings.builder();
+        changeStreams.forEach((key, value) -> {
+            switch (key) {
+                case "enabled" -> builder.enabled((Boolean) value);
+                case "retentionHours" -> builder.retentionHours(((Number) value).intValue());
+                case "collections" -> builder.collections((List<String>) value);
+                case "resumeTokenCollection" -> builder.resumeTokenCollection((String) value);
+                case "consumers" -> builder.consumers((List<String>) value);
+                default -> throw new IllegalArgumentException("Unknown change stream setting %s in profile %s".formatted(key, name));
+            }
+        });
+        return builder.build();
+    }
+
+    private static TransportSettings loadTransport(Map<String, Object> transport, String name) {
+        var builder = TransportSettings.builder();
+        transport.forEach((key, value) -> {
+            switch (key) {
+                case "type" -> builder.type(TransportSettings.Type.valueOf(((String) value).toUpperCase(Locale.ROOT)));
+                case "streamMode" -> builder.streamMode(TransportSettings.StreamMode.valueOf(((String) value).toUpperCase(Locale.ROOT)));
+                case "shardCount" -> builder.shardCount(((Number) value).intValue());
+                case "retentionHours" -> builder.retentionHours(((Number) value).intValue());
+                case "consumers" -> builder.consumers((List<String>) value);
+                case "enhancedFanOut" -> builder.enhancedFanOut((Boolean) value);
+                default -> throw new IllegalArgumentException("Unknown transport setting %s in profile %s".formatted(key, name));
+            }
+        });
+        return builder.build();
+    }
+
+    private static LoggingSettings loadLogging(Map<String, Object> logging, String name) {
+        var builder = LoggingSettings.builder();
+        logging.forEach((key, value) -> {
+            switch (key) {
+                case "mode" -> builder.mode(LoggingSettings.Mode.valueOf(((String) value).toUpperCase(Locale.ROOT)));
+                case "retentionDays" -> builder.retentionDays(((Number) value).intValue());
+                case "flushIntervalSeconds" -> builder.flushIntervalSeconds(((Number) value).intValue());
+                case "bufferLimitBytes" -> builder.bufferLimitBytes(((Number) value).intValue());
+                case "dropPattern" -> builder.dropPattern((String) value);
+                default -> throw new IllegalArgumentException("Unknown logging setting %s in profile %s".formatted(key, name));
+            }
+        });
+        return builder.build();
+    }
+}
@@ -0,0 +1,138 @@
+package com.jcore;
+
+import com.jcore.model.ScalingWindow;
+import com.jcore.model.ServiceDefinition;
+import com.jcore.model.SloSettings;
+import software.constructs.Construct;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the services to run from the services context in cdk.json. Every entry gets a target group, a listener
+ * rule, a task definition, a service (with scaling) and a deploy stage.
+ */
+public final class ServiceCatalog {
+
+    /**
+     * The messenger services, used when there is no services context (as in the tests).
+     */
+    public static final List<ServiceDefinition> MESSENGER = List.of(
+            ServiceDefinition.builder().mode("send").containerName("berichtenverstuurding").priority(1).build(),
+            ServiceDefinition.builder().mode("receive").containerName("berichtenontvangding").priority(2).build()
+    );
+
+    /**
+     * The loading rules come after the rule of every service, so the priorities of the services stay below it.
+     */
+    public static final int LOADING_PRIORITY = 40000;
+
+    // the mode ends up in target group names (32 characters), environment variable names and construct ids
+    private static final Pattern MODE = Pattern.compile("[a-z][a-z0-9]{0,23}");
+
+    private ServiceCatalog() {
+    }
+
+    public static List<ServiceDefinition> fromContext(Construct scope) {
+        var context = (List<Map<String, Object>>) scope.getNode().tryGetContext("services");
+        if (context == null) {
+            return MESSENGER;
+        }
+        var services = context.stream().map(ServiceCatalog::load).toList();
+        validate(services);
+        return services;
+    }
+
+    private static ServiceDefinition load(Map<String, Object> entry) {
+        var builder = ServiceDefinition.builder();
+        entry.forEach((key, value) -> {
+            switch (key) {
+                case "mode" -> builder.mode((String) value);
+                case "containerName" -> builder.containerName((String) value);
+                case "port" -> builder.port(((Number) value).intValue());
+                case "priority" -> builder.priority(((Number) value).intValue());
+                case "sourcePaths" -> builder.sourcePaths(List.copyOf((List<String>) value));
+                case "cpu" -> builder.cpu(((Number) value).intValue());
+                case "memory" -> builder.memory(((Number) value).intValue());
+                case "desiredCount" -> builder.desiredCount(((Number) value).intValue());
+                case "minCapacity" -> builder.minCapacity(((Number) value).intValue());
+                case "maxCapacity" -> builder.maxCapacity(((Number) value).intValue());
+                case "targetCpuUtilization" -> builder.targetCpuUtilization(((Number) value).intValue());
+                case "scalingWindows" -> builder.scalingWindows(((List<Map<String, Object>>) value).stream()
+                        .map(window -> loadScalingWindow(window, entry.get("mode")))
+                        .toList());
+                case "slo" -> builder.slo(loadSlo((Map<String, Object>) value, entry.get("mode")));
+                default -> throw new IllegalArgumentException("Unknown setting %s in service %s".formatted(key, entry.get("mode")));
+            }
+        });
+        return builder.build();
+    }
+
+    private static ScalingWindow loadScalingWindow(Map<String, Object> window, Object mode) {
+        var builder = ScalingWindow.builder();
+        window.forEach((key, value) -> {
+            switch (key) {
+                case "name" -> builder.name((String) value);
+                case "start" -> builder.start((String) value);
+                case "end" -> builder.end((String) value);
+                case "timezone" -> builder.timezone((String) value);
+                case "minCapacity" -> builder.minCapacity(((Number) value).intValue());
+                case "maxCapacity" -> builder.maxCapacity(((Number) value).intValue());
+                case "loadBalancerCapacityUnits" -> builder.loadBalancerCapacityUnits(((Number) value).intValue());
+                default -> throw new IllegalArgumentException("Unknown scaling window setting %s in service %s".formatted(key, mode));
+            }
+        });
+        var scalingWindow = builder.build();
+        if (scalingWindow.getName() == null || scalingWindow.getStart() == null || scalingWindow.getEnd() == null
+                || scalingWindow.getMinCapacity() == null || scalingWindow.getMaxCapacity() == null) {
+            throw new IllegalArgumentException("A scaling window of service %s needs a name, start, end, minCapacity and maxCapacity".formatted(mode));
+        }
+        // the window applies its capacity at the start, 0 would stop the service right before the peak
+        if (scalingWindow.getMinCapacity() < 1 || scalingWindow.getMinCapacity() > scalingWindow.getMaxCapacity()) {
+            throw new IllegalArgumentException("Scaling window %s of service %s needs 1 <= minCapacity <= maxCapacity, not %d and %d"
+                    .formatted(scalingWindow.getName(), mode, scalingWindow.getMinCapacity(), scalingWindow.getMaxCapacity()));
+        }
+        return scalingWindow;
+    }
+
+    private static SloSettings loadSlo(Map<String, Object> slo, Object mode) {
+        var builder = SloSettings.builder();
+        slo.forEach((key, value) -> {
+            switch (key) {
+                case "p99LatencyMs" -> builder.p99LatencyMs(((Number) value).intValue());
+                case "maxErrorRatePercent" -> builder.maxErrorRatePercent(((Number) value).doubleValue());
+                case "maxCpuUtilization" -> builder.maxCpuUtilization(((Number) value).intValue());
+                case "maxMemoryUtilization" -> builder.maxMemoryUtilization(((Number) value).intValue());
+                default -> throw new IllegalArgumentException("Unknown slo %s in service %s".formatted(key, mode));
+            }
+        });
+        return builder.build();
+    }
+
+    private static void validate(List<ServiceDefinition> services) {
+        if (services.isEmpty()) {
+            throw new IllegalArgumentException("The service catalog is empty");
+        }
+        var modes = new HashSet<String>();
+        var priorities = new HashSet<Integer>();
+        for (var service : services) {
+            if (service.getMode() == null || !MODE.matcher(service.getMode()).matches()) {
+                throw new IllegalArgumentException("Invalid service mode: " + service.getMode());
+            }
+            if (!modes.add(service.getMode())) {
+                throw new IllegalArgumentException("Duplicate service mode: " + service.getMode());
+            }
+            if (service.getContainerName() == null) {
+                throw new IllegalArgumentException("No container name for service " + service.getMode());
+            }
+            if (service.getPriority() == null || service.getPriority() < 1 || service.getPriority() >= LOADING_PRIORITY) {
+                throw new IllegalArgumentException("Service %s needs a priority from 1 to %d".formatted(service.getMode(), LOADING_PRIORITY - 1));
+            }
+            if (!priorities.add(service.getPriority())) {
+                throw new IllegalArgumentException("Duplicate priority %d of service %s".formatted(service.getPriority(), service.getMode()));
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.jcore.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * DocumentDB change streams, so the readers are told about new messages instead of polling for them. The cluster
+ * keeps the change stream log for the retention, the application enables the stream per collection
+ * (modifyChangeStreams) and stores the resume token of what it handled.
+ */
+@Data
+@Builder(toBuilder = true)
+public class ChangeStreamSettings {
+    @Builder.Default
+    boolean enabled = false;
+    // how long a reader can be away and still resume, 1 to 168 hours
+    @Builder.Default
+    int retentionHours = 3;
+    @Builder.Default
+    List<String> collections = List.of("messages");
+    // the collection with the last resume token per reader
+    @Builder.Default
+    String resumeTokenCollection = "resume-tokens";
+    // the modes that watch the collections
+    @Builder.Default
+    List<String> consumers = List.of("receive");
+}
@@ -0,0 +1,95 @@
+package com.jcore.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.Locale;
+
+/**
+ * The DocumentDB backend. INSTANCE is a cluster with one writer, the others are read replicas. ELASTIC is a sharded
+ * elastic cluster, every shard has its own writer.
+ */
+@Data
+@Builder(toBuilder = true)
+public class DatabaseSettings {
+    @Builder.Default
+    Mode mode = Mode.INSTANCE;
+
+    // the settings below only apply to INSTANCE
+    @Builder.Default
+    int instanceCount = 1;
+    @Builder.Default
+    String writerInstanceClass = "db.t3.medium";
+    // the class of the read replicas, the writer class when null
+    String readerInstanceClass;
+    @Builder.Default
+    StorageType storageType = StorageType.STANDARD;
+    // the most tasks that connect at the same time, every task opens a pool of connections
+    @Builder.Default
+    int maxTasks = 1;
+    // change streams need the cluster parameter group, so they are not available on ELASTIC
+    @Builder.Default
+    ChangeStreamSettings changeStreams = ChangeStreamSettings.builder().build();
+
+    // the settings below only apply to ELASTIC
+    @Builder.Default
+    int shardCount = 2;
+    // vCPUs per shard instance: 2, 4, 8, 16, 32 or 64
+    @Builder.Default
+    int shardCapacity = 2;
+    // the instances per shard, the first is the writer of the shard
+    @Builder.Default
+    int shardInstanceCount = 2;
+
+    public String getReaderInstanceClass() {
+        return readerInstanceClass != null ? readerInstanceClass : writerInstanceClass;
+    }
+
+    /**
+     * The backend with the CloudWatch namespace, dimension and metrics of its writer.
+     */
+    public enum Mode {
+        INSTANCE("AWS/DocDB", "DBClusterIdentifier", "CPUUtilization", "FreeableMemory"),
+        ELASTIC("AWS/DocDB-Elastic", "ClusterId", "PrimaryInstanceCPUUtilization", "PrimaryInstanceFreeableMemory");
+
+        private final String namespace;
+        private final String dimension;
+        private final String cpuMetric;
+        private final String memoryMetric;
+
+        Mode(String namespace, String dimension, String cpuMetric, String memoryMetric) {
+            this.namespace = namespace;
+            this.dimension = dimension;
+            this.cpuMetric = cpuMetric;
+            this.memoryMetric = memoryMetric;
+        }
+
+        public String namespace() {
+            return namespace;
+        }
+
+        public String dimension() {
+            return dimension;
+        }
+
+        public String cpuMetric() {
+            return cpuMetric;
+        }
+
+        public String memoryMetric() {
+            return memoryMetric;
+        }
+    }
+
+    /**
+     * STANDARD bills every I/O, IOPT1 (I/O-Optimized) has no I/O charges at a higher instance and storage price,
+     * the cheaper choice once I/O is the larger part of the bill.
+     */
+    public enum StorageType {
+        STANDARD, IOPT1;
+
+        public String value() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+}
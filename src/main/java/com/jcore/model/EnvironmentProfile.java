@@ -0,0 +1,119 @@
+package com.jcore.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * The sizing of one environment, read from the profiles context in cdk.json. The defaults are the sizes of the
+ * stack without a profile.
+ */
+@Data
+@Builder(toBuilder = true)
+public class EnvironmentProfile {
+    String name;
+    // the account and region to deploy to, environment-agnostic when not set
+    String account;
+    String region;
+    // the stacks once per region, the first is the primary with the writable database, a single region when empty
+    @Builder.Default
+    List<String> regions = List.of();
+    // the failover record that sends users to the primary region and, when its health check fails, to the first
+    // secondary, no record without a hosted zone
+    String domainName;
+    String hostedZoneId;
+
+    @Builder.Default
+    int taskCpu = 256;
+    @Builder.Default
+    int taskMemory = 1024;
+    @Builder.Default
+    int desiredCount = 1;
+    @Builder.Default
+    int minCapacity = 1;
+    @Builder.Default
+    int maxCapacity = 1;
+    @Builder.Default
+    int targetCpuUtilization = 70;
+    @Builder.Default
+    int healthCheckIntervalSeconds = 60;
+
+    // INSTANCE or a sharded ELASTIC cluster, the instance settings only apply to INSTANCE
+    @Builder.Default
+    DatabaseSettings.Mode databaseMode = DatabaseSettings.Mode.INSTANCE;
+    @Builder.Default
+    int databaseInstanceCount = 1;
+    // the class of the writer, the read replicas use databaseReaderInstanceClass when set
+    @Builder.Default
+    String databaseInstanceClass = "db.t3.medium";
+    String databaseReaderInstanceClass;
+    @Builder.Default
+    DatabaseSettings.StorageType databaseStorageType = DatabaseSettings.StorageType.STANDARD;
+    @Builder.Default
+    ChangeStreamSettings changeStreams = ChangeStreamSettings.builder().build();
+    @Builder.Default
+    int databaseShardCount = 2;
+    @Builder.Default
+    int databaseShardCapacity = 2;
+    @Builder.Default
+    int databaseShardInstanceCount = 2;
+
+    @Builder.Default
+    boolean natGatewayPerZone = false;
+    // access logs of both load balancers in S3, with an Athena table and saved queries
+    @Builder.Default
+    boolean accessLogs = false;
+
+    @Builder.Default
+    TransportSettings transport = TransportSettings.builder().build();
+    // the settings of the queue of the SNS_SQS transport
+    @Builder.Default
+    int queueReceiveWaitTimeSeconds = 0;
+    @Builder.Default
+    int queueVisibilityTimeoutSeconds = 30;
+
+    @Builder.Default
+    ContainerInsights containerInsights = ContainerInsights.ENABLED;
+    @Builder.Default
+    LoggingSettings logging = LoggingSettings.builder().build();
+    // the CloudWatch namespace of the metrics the services log in the embedded metric format
+    @Builder.Default
+    String metricsNamespace = "Messenger";
+
+    // an ADOT collector in every task and active X-Ray tracing on the topic
+    @Builder.Default
+    boolean tracing = false;
+    @Builder.Default
+    double tracingSamplingRate = 0.05;
+    // a continuous flight recording in every task, uploaded to a bucket
+    @Builder.Default
+    boolean profiling = false;
+
+    @Builder.Default
+    String buildComputeType = "BUILD_GENERAL1_SMALL";
+    @Builder.Default
+    boolean batchBuild = false;
+
+    public boolean isMultiRegion() {
+        return !regions.isEmpty();
+    }
+
+    /**
+     * The region of a single region profile or the first of several, the one with the writable database.
+     */
+    public boolean isPrimaryRegion() {
+        return !isMultiRegion() || regions.get(0).equals(region);
+    }
+
+    public List<String> getSecondaryRegions() {
+        return isMultiRegion() ? regions.subList(1, regions.size()) : List.of();
+    }
+
+    /**
+     * ENABLED gives metrics per cluster and service, ENHANCED adds them per task and per container.
+     */
+    public enum ContainerInsights {
+        DISABLED, ENABLED, ENHANCED
+    }
+}
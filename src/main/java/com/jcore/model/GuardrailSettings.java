@@ -0,0 +1,25 @@
+package com.jcore.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder(toBuilder = true)
+public class GuardrailSettings {
+    @Builder.Default
+    Severity severity = Severity.WARNING;
+    @Builder.Default
+    boolean requireScaling = true;
+    @Builder.Default
+    int maxHealthCheckIntervalSeconds = 30;
+    @Builder.Default
+    boolean requireLongPolling = true;
+    @Builder.Default
+    boolean forbidBurstableDatabase = false;
+    @Builder.Default
+    int minTaskCpu = 256;
+
+    public enum Severity {
+        WARNING, ERROR
+    }
+}
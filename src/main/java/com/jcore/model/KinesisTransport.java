@@ -0,0 +1,60 @@
+package com.jcore.model;
+
+import software.amazon.awscdk.services.kinesis.CfnStreamConsumer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages written to a Kinesis data stream. Every mode may write, the readers also read it, through their own
+ * enhanced fan-out consumer when they have one.
+ *
+ * @param consumers the enhanced fan-out consumer per reading mode, empty without enhanced fan-out
+ */
+public record KinesisTransport(String streamName, String streamArn, List<String> readers,
+                               Map<String, CfnStreamConsumer> consumers) implements MessageTransport {
+
+    public List<String> consumerNames() {
+        return consumers.values().stream().map(CfnStreamConsumer::getConsumerName).toList();
+    }
+
+    @Override
+    public Map<String, String> getEnvironmentVariables(String mode) {
+        var variables = new LinkedHashMap<String, String>();
+        variables.put("AWS_TRANSPORT", "kinesis");
+        variables.put("AWS_KINESISSTREAM", streamName);
+        if (consumers.containsKey(mode)) {
+            variables.put("AWS_KINESISCONSUMERARN", consumers.get(mode).getAttrConsumerArn());
+        }
+        return variables;
+    }
+
+    @Override
+    public List<String> getManagedPolicies(String mode) {
+        return List.of();
+    }
+
+    @Override
+    public List<Map<String, Object>> getPolicyStatements(String mode) {
+        var statements = new ArrayList<Map<String, Object>>();
+        statements.add(Map.of(
+                "Effect", "Allow",
+                "Action", List.of("kinesis:PutRecord", "kinesis:PutRecords", "kinesis:DescribeStreamSummary"),
+                "Resource", List.of(streamArn)));
+        if (readers.contains(mode)) {
+            statements.add(Map.of(
+                    "Effect", "Allow",
+                    "Action", List.of("kinesis:GetRecords", "kinesis:GetShardIterator", "kinesis:DescribeStream", "kinesis:ListShards"),
+                    "Resource", List.of(streamArn)));
+        }
+        if (consumers.containsKey(mode)) {
+            statements.add(Map.of(
+                    "Effect", "Allow",
+                    "Action", List.of("kinesis:SubscribeToShard", "kinesis:DescribeStreamConsumer"),
+                    "Resource", List.of(consumers.get(mode).getAttrConsumerArn())));
+        }
+        return statements;
+    }
+}
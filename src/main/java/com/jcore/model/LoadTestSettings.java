@@ -0,0 +1,34 @@
+package com.jcore.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Builder
+public class LoadTestSettings {
+    String targetUrl;
+    // per mode the staging service the pipeline deploys the build to before the test
+    Map<String, String> stagingServices;
+    @Builder.Default
+    String script = "loadtest/messenger.js";
+    @Builder.Default
+    String duration = "2m";
+    @Builder.Default
+    int virtualUsers = 50;
+
+    // budgets, the stage fails when one of them is not met
+    @Builder.Default
+    int p50LatencyMs = 100;
+    @Builder.Default
+    int p99LatencyMs = 500;
+    @Builder.Default
+    int requestsPerSecond = 50;
+
+    // only needed when the target is not publicly reachable, as the internal load balancer of the stack
+    String vpcId;
+    List<String> subnets;
+    String securityGroup;
+}
@@ -0,0 +1,32 @@
+package com.jcore.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * How the messenger containers ship their logs. AWSLOGS writes straight to a log group the driver creates, FIRELENS
+ * routes them through a Fluent Bit sidecar into a log group with retention.
+ */
+@Data
+@Builder(toBuilder = true)
+public class LoggingSettings {
+    @Builder.Default
+    Mode mode = Mode.AWSLOGS;
+
+    // the settings below only apply to FIRELENS
+    @Builder.Default
+    int retentionDays = 30;
+    // every flush sends what was collected since the last one as one batch
+    @Builder.Default
+    int flushIntervalSeconds = 5;
+    // what the log driver buffers for the router before the application blocks
+    @Builder.Default
+    int bufferLimitBytes = 4 * 1024 * 1024;
+    // lines matching this regular expression are dropped by the router, nothing is dropped when null
+    @Builder.Default
+    String dropPattern = "DEBUG|/healthcheck";
+
+    public enum Mode {
+        AWSLOGS, FIRELENS
+    }
+}
@@ -0,0 +1,18 @@
+package com.jcore.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a service needs to pass messages over a transport: the variables that tell the application where to send and
+ * read them and what its task role may do.
+ */
+public interface MessageTransport {
+
+    Map<String, String> getEnvironmentVariables(String mode);
+
+    List<String> getManagedPolicies(String mode);
+
+    // the statements of the inline transport policy, no inline policy when empty
+    List<Map<String, Object>> getPolicyStatements(String mode);
+}
@@ -0,0 +1,52 @@
+package com.jcore.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The resources on the performance dashboard and their alarms, the load balancers and target groups by their full
+ * name (the value of their CloudWatch dimension).
+ */
+@Data
+@Builder
+public class MonitoringSettings {
+    String dashboardName;
+    String region;
+    String clusterName;
+    String applicationLoadBalancer;
+    String networkLoadBalancer;
+    String networkTargetGroup;
+    // per mode, in the order of the service catalog
+    Map<String, Service> services;
+    // the queue and topic of SNS_SQS, the stream and its enhanced fan-out consumers of KINESIS, null for the other
+    String queueName;
+    String topicName;
+    String streamName;
+    @Builder.Default
+    List<String> streamConsumers = List.of();
+    @Builder.Default
+    DatabaseSettings.Mode databaseMode = DatabaseSettings.Mode.INSTANCE;
+    // the value of the cluster dimension of the database mode
+    String databaseCluster;
+    List<String> natGateways;
+    // the namespace of the metrics of the services themselves, not on the dashboard when null
+    String metricsNamespace;
+
+    @Builder.Default
+    int periodSeconds = 60;
+
+    // the alarms notify this topic, no alarms when null
+    String alertTopic;
+    @Builder.Default
+    int maxQueueAgeSeconds = 300;
+    @Builder.Default
+    int maxDatabaseCpuUtilization = 80;
+    @Builder.Default
+    long minDatabaseFreeableMemoryBytes = 256L * 1024 * 1024;
+
+    public record Service(String serviceName, String targetGroup, SloSettings slo) {
+    }
+}
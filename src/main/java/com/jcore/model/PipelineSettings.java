@@ -3,6 +3,7 @@ package com.jcore.model;
 import lombok.Builder;
 import lombok.Data;
 
+import java.util.List;
 import java.util.Map;
 
 @Data
@@ -14,6 +15,56 @@ public class PipelineSettings {
     String clusterName;
     Map<String, Service> services;
 
-    public record Service(String serviceName, String containerName) {
+    @Builder.Default
+    String buildComputeType = "BUILD_GENERAL1_SMALL";
+    @Builder.Default
+    String buildImage = "aws/codebuild/standard:7.0";
+    @Builder.Default
+    BuildCache buildCache = BuildCache.LOCAL;
+    @Builder.Default
+    boolean batchBuild = false;
+
+    // role names are global, a pipeline per region needs them to differ
+    @Builder.Default
+    String roleNameSuffix = "";
+
+    @Builder.Default
+    PipelineType pipelineType = PipelineType.V1;
+    String connectionArn;
+    String fullRepositoryId;
+    String branch;
+    @Builder.Default
+    List<String> sharedSourcePaths = List.of();
+
+    /**
+     * Deploys to the staging services and runs loadtest/messenger.js against them before the deploy stages, no
+     * load test when null.
+     */
+    LoadTestSettings loadTest;
+
+    /**
+     * @param sourcePaths paths in the application repository (a trailing / marks a folder) that only affect this
+     *                    service, an empty list means every change affects it
+     */
+    public record Service(String serviceName, String containerName, List<String> sourcePaths) {
+        public Service(String serviceName, String containerName) {
+            this(serviceName, containerName, List.of());
+        }
+    }
+
+    /**
+     * V1 starts on every push to the GitHub (v1) source, V2 uses a CodeStar connection with trigger filters and
+     * only builds and deploys the services touched by the change.
+     */
+    public enum PipelineType {
+        V1, V2
+    }
+
+    /**
+     * LOCAL keeps docker layers, the git source and ~/.m2 on the build host (only reused while the host is warm),
+     * S3 stores ~/.m2 in a cache bucket so every build starts with the maven dependencies.
+     */
+    public enum BuildCache {
+        NONE, LOCAL, S3
     }
 }
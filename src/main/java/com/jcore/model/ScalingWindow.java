@@ -0,0 +1,24 @@
+package com.jcore.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * A known traffic peak. At start the service scales to the capacity of the window, at end back to its own. Start
+ * should be a few minutes before the peak, new tasks need that long to pass their health checks.
+ */
+@Data
+@Builder
+public class ScalingWindow {
+    String name;
+    // cron expressions with six fields, as in cron(0 7 ? * MON-FRI *)
+    String start;
+    String end;
+    @Builder.Default
+    String timezone = "UTC";
+    // the capacity of the service during the window, both required, 1 <= min <= max
+    Integer minCapacity;
+    Integer maxCapacity;
+    // reserved load balancer capacity units during the window, no reservation when null
+    Integer loadBalancerCapacityUnits;
+}
@@ -0,0 +1,37 @@
+package com.jcore.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One worker type of the service catalog. The mode is the path on the load balancer, the spring profile of the
+ * container and the name of the service in the pipeline.
+ */
+@Data
+@Builder
+public class ServiceDefinition {
+    String mode;
+    String containerName;
+    @Builder.Default
+    int port = 80;
+    // the priority of the listener rule, fixed per entry so adding or reordering entries leaves the other rules alone
+    Integer priority;
+    // paths in the application repository that only affect this service, empty when every change affects it
+    @Builder.Default
+    List<String> sourcePaths = List.of();
+
+    // the sizing of this service, the environment profile decides when not set
+    Integer cpu;
+    Integer memory;
+    Integer desiredCount;
+    Integer minCapacity;
+    Integer maxCapacity;
+    Integer targetCpuUtilization;
+    @Builder.Default
+    List<ScalingWindow> scalingWindows = List.of();
+
+    @Builder.Default
+    SloSettings slo = SloSettings.builder().build();
+}
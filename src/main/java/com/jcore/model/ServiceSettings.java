@@ -10,17 +10,50 @@ import java.util.List;
 @Builder
 public class ServiceSettings {
     String cluster;
+    String clusterName;
     String containerName;
     String targetGroup;
     String securityGroup;
     List<String> subnets;
     String mode;
     int port;
-    String snsTopic;
-    String sqsQueue;
+    MessageTransport transport;
     String databaseUrl;
     CfnSecret connectionString;
+    // the collections this service watches, no change streams when null
+    ChangeStreamSettings changeStreams;
     String username;
     CfnSecret password;
     String region;
+
+    @Builder.Default
+    int cpu = 256;
+    @Builder.Default
+    int memory = 1024;
+    @Builder.Default
+    int desiredCount = 1;
+    // scales on CPU between min and max capacity, no scaling when they are equal
+    @Builder.Default
+    int minCapacity = 1;
+    @Builder.Default
+    int maxCapacity = 1;
+    @Builder.Default
+    int targetCpuUtilization = 70;
+    // scheduled capacity for known peaks, on top of the scaling on CPU
+    @Builder.Default
+    List<ScalingWindow> scalingWindows = List.of();
+
+    @Builder.Default
+    LoggingSettings logging = LoggingSettings.builder().build();
+
+    // the CloudWatch namespace of the embedded metric format, no metrics when null
+    String metricsNamespace;
+
+    // an OpenTelemetry collector next to the application, sending a fraction of the traces to X-Ray
+    @Builder.Default
+    boolean tracing = false;
+    @Builder.Default
+    double tracingSamplingRate = 0.05;
+    // a continuous flight recording, uploaded to this bucket, no profiling when null
+    String profilingBucket;
 }
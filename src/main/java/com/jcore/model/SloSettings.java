@@ -0,0 +1,21 @@
+package com.jcore.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * The objectives of one service, an alarm goes off when one of them is missed for 3 out of 5 minutes.
+ */
+@Data
+@Builder
+public class SloSettings {
+    @Builder.Default
+    int p99LatencyMs = 500;
+    // 5xx responses as percentage of the requests
+    @Builder.Default
+    double maxErrorRatePercent = 1;
+    @Builder.Default
+    int maxCpuUtilization = 85;
+    @Builder.Default
+    int maxMemoryUtilization = 85;
+}
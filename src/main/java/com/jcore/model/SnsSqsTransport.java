@@ -0,0 +1,33 @@
+package com.jcore.model;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages published to a topic and delivered to the queue subscribed to it.
+ */
+public record SnsSqsTransport(String topicArn, String queueName) implements MessageTransport {
+
+    @Override
+    public Map<String, String> getEnvironmentVariables(String mode) {
+        var variables = new LinkedHashMap<String, String>();
+        variables.put("AWS_TRANSPORT", "sns-sqs");
+        variables.put("AWS_SNSTOPIC", topicArn);
+        variables.put("AWS_SQSQUEUE", queueName);
+        return variables;
+    }
+
+    @Override
+    public List<String> getManagedPolicies(String mode) {
+        return List.of(
+                "arn:aws:iam::aws:policy/AmazonSNSFullAccess",
+                "arn:aws:iam::aws:policy/AmazonSQSFullAccess",
+                "arn:aws:iam::aws:policy/AmazonSQSReadOnlyAccess");
+    }
+
+    @Override
+    public List<Map<String, Object>> getPolicyStatements(String mode) {
+        return List.of();
+    }
+}
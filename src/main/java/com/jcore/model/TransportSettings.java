@@ -0,0 +1,43 @@
+package com.jcore.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * How the services pass messages. SNS_SQS publishes to a topic with a queue subscribed, KINESIS writes to a data
+ * stream that keeps the order per partition key and can be read again within the retention.
+ */
+@Data
+@Builder(toBuilder = true)
+public class TransportSettings {
+    @Builder.Default
+    Type type = Type.SNS_SQS;
+
+    // the settings below only apply to KINESIS
+    @Builder.Default
+    StreamMode streamMode = StreamMode.ON_DEMAND;
+    // the shards of a PROVISIONED stream, each takes 1 MB or 1000 records per second of writes
+    @Builder.Default
+    int shardCount = 1;
+    @Builder.Default
+    int retentionHours = 24;
+    // the modes that read the stream, every mode may write to it
+    @Builder.Default
+    List<String> consumers = List.of("receive");
+    // every consumer gets its own 2 MB per second per shard, pushed to it, instead of sharing the polled 2 MB
+    @Builder.Default
+    boolean enhancedFanOut = false;
+
+    public enum Type {
+        SNS_SQS, KINESIS
+    }
+
+    /**
+     * ON_DEMAND scales the shards with the writes, PROVISIONED keeps shardCount shards.
+     */
+    public enum StreamMode {
+        ON_DEMAND, PROVISIONED
+    }
+}
@@ -1,26 +1,174 @@
-// package com.myorg;
+package com.jcore;
 
-// import software.amazon.awscdk.App;
-// import software.amazon.awscdk.assertions.Template;
-// import java.io.IOException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.jcore.model.EnvironmentProfile;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import software.amazon.awscdk.App;
+import software.amazon.awscdk.Stack;
+import software.amazon.awscdk.StackProps;
+import software.amazon.awscdk.assertions.Template;
 
-// import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
-// import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
 
-// example test. To run these tests, uncomment this file, along with the
-// example resource in java/src/main/java/com/myorg/AwsCursusStack.java
-// public class AwsCursusTest {
+/**
+ * Snapshots of the properties that decide how the messenger performs, compared with the golden files in
+ * src/test/resources/golden. After an intended change run mvn test -Dgolden.update=true and commit the new files.
+ */
+public class AwsCursusTest {
 
-//     @Test
-//     public void testStack() throws IOException {
-//         App app = new App();
-//         AwsCursusStack stack = new AwsCursusStack(app, "test");
+    private static final Path GOLDEN = Path.of("src/test/resources/golden");
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
 
-//         Template template = Template.fromStack(stack);
+    // CloudFormation limits, a template may use up to BUDGET of each
+    private static final double BUDGET = 0.8;
+    private static final int MAX_RESOURCES = 500;
+    private static final int MAX_OUTPUTS = 200;
+    private static final int MAX_TEMPLATE_BYTES = 1_000_000;
 
-//         template.hasResourceProperties("AWS::SQS::Queue", new HashMap<String, Number>() {{
-//           put("VisibilityTimeout", 300);
-//         }});
-//     }
-// }
+    private static Template template;
+    private static Map<String, Stack> stacks;
+
+    @BeforeAll
+    static void synth() {
+        App app = new App();
+        var stack = new AwsCursusStack(app, "AwsCursusStack");
+        var props = StackProps.builder().build();
+        var profile = EnvironmentProfile.builder().build();
+        var platformStack = new AwsPlatformStack(app, "AwsCursusPlatform", props);
+        var foundationStack = new AwsFoundationStack(app, "AwsCursusFoundation", props, platformStack.getPlatform(),
+                profile);
+        var applicationStack = new AwsApplicationStack(app, "AwsCursusApplication", props,
+                platformStack.getPlatform(), foundationStack.getFoundation(), profile);
+
+        template = Template.fromStack(stack);
+        stacks = Map.of(
+                "AwsCursusStack", stack,
+                "AwsCursusPlatform", platformStack,
+                "AwsCursusFoundation", foundationStack,
+                "AwsCursusApplication", applicationStack
+        );
+    }
+
+    @Test
+    public void taskDefinitions() throws IOException {
+        var snapshot = new TreeMap<String, Object>();
+        resources("AWS::ECS::TaskDefinition").forEach(properties -> {
+            var containers = (List<Map<String, Object>>) properties.get("ContainerDefinitions");
+            var taskDefinition = select(properties, List.of("Cpu", "Memory"));
+            taskDefinition.put("ContainerDefinitions", containers.stream()
+                    .map(container -> select(container, List.of("Name", "Cpu", "Memory", "MemoryReservation", "Essential")))
+                    .toList());
+            snapshot.put((String) containers.get(0).get("Name"), taskDefinition);
+        });
+        assertGolden("task-definitions", snapshot);
+    }
+
+    @Test
+    public void services() throws IOException {
+        assertGolden("services", snapshot("AWS::ECS::Service", "ServiceName",
+                List.of("DesiredCount", "LaunchType", "CapacityProviderStrategy", "DeploymentConfiguration")));
+    }
+
+    @Test
+    public void targetGroups() throws IOException {
+        assertGolden("target-groups", snapshot("AWS::ElasticLoadBalancingV2::TargetGroup", "Name",
+                List.of("Protocol", "TargetType", "HealthCheckPath", "HealthCheckIntervalSeconds",
+                        "HealthyThresholdCount", "UnhealthyThresholdCount", "TargetGroupAttributes")));
+    }
+
+    @Test
+    public void queues() throws IOException {
+        assertGolden("queues", snapshot("AWS::SQS::Queue", "QueueName",
+                List.of("ReceiveMessageWaitTimeSeconds", "VisibilityTimeout", "MessageRetentionPeriod", "DelaySeconds")));
+    }
+
+    @Test
+    public void database() throws IOException {
+        var snapshot = new TreeMap<String, Object>();
+        snapshot.put("clusters", snapshot("AWS::DocDB::DBCluster", "DBClusterIdentifier",
+                List.of("StorageType", "BackupRetentionPeriod")));
+        snapshot.put("instances", snapshot("AWS::DocDB::DBInstance", "DBInstanceIdentifier",
+                List.of("DBInstanceClass")));
+        assertGolden("database", snapshot);
+    }
+
+    @ParameterizedTest
+    @MethodSource("stackNames")
+    public void withinBudget(String stackName) throws IOException {
+        var json = Template.fromStack(stacks.get(stackName)).toJSON();
+        int resources = ((Map<?, ?>) json.getOrDefault("Resources", Map.of())).size();
+        int outputs = ((Map<?, ?>) json.getOrDefault("Outputs", Map.of())).size();
+        int bytes = MAPPER.writeValueAsBytes(json).length;
+
+        assertTrue(resources <= MAX_RESOURCES * BUDGET,
+                "%s has %d resources, the budget is %.0f".formatted(stackName, resources, MAX_RESOURCES * BUDGET));
+        assertTrue(outputs <= MAX_OUTPUTS * BUDGET,
+                "%s has %d outputs, the budget is %.0f".formatted(stackName, outputs, MAX_OUTPUTS * BUDGET));
+        assertTrue(bytes <= MAX_TEMPLATE_BYTES * BUDGET,
+                "%s is %d bytes, the budget is %.0f".formatted(stackName, bytes, MAX_TEMPLATE_BYTES * BUDGET));
+    }
+
+    static Stream<String> stackNames() {
+        return Stream.of("AwsCursusStack", "AwsCursusPlatform", "AwsCursusFoundation", "AwsCursusApplication");
+    }
+
+    private static List<Map<String, Object>> resources(String type) {
+        var result = new ArrayList<Map<String, Object>>();
+        template.findResources(type).values().forEach(resource ->
+                result.add((Map<String, Object>) ((Map<String, Object>) resource).get("Properties")));
+        return result;
+    }
+
+    private static Map<String, Object> snapshot(String type, String keyProperty, List<String> properties) {
+        var snapshot = new TreeMap<String, Object>();
+        resources(type).forEach(resource -> snapshot.put((String) resource.get(keyProperty), select(resource, properties)));
+        return snapshot;
+    }
+
+    private static Map<String, Object> select(Map<String, Object> properties, List<String> names) {
+        var selected = new LinkedHashMap<String, Object>();
+        names.stream()
+                .filter(properties::containsKey)
+                .forEach(name -> selected.put(name, properties.get(name)));
+        return selected;
+    }
+
+    private static void assertGolden(String name, Object snapshot) throws IOException {
+        var file = GOLDEN.resolve(name + ".json");
+        var actual = MAPPER.valueToTree(snapshot);
+        if (Boolean.getBoolean("golden.update")) {
+            Files.createDirectories(GOLDEN);
+            Files.writeString(file, MAPPER.writeValueAsString(actual) + "\n");
+            return;
+        }
+        if (!Files.exists(file)) {
+            fail("No golden file %s, create it with -Dgolden.update=true".formatted(file));
+        }
+        var expected = MAPPER.readTree(file.toFile());
+        // 256 and 256.0 are the same value, whichever way the template was read
+        if (!expected.equals((left, right) -> left.isNumber() && right.isNumber()
+                ? Double.compare(left.doubleValue(), right.doubleValue())
+                : left.equals(right) ? 0 : 1, actual)) {
+            fail("%s differs from %s, run with -Dgolden.update=true if the change is intended:%n%s"
+                    .formatted(name, file, MAPPER.writeValueAsString(actual)));
+        }
+    }
+}
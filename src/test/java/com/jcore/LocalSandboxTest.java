@@ -0,0 +1,67 @@
+package com.jcore;
+
+import com.jcore.model.EnvironmentProfile;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import software.amazon.awscdk.App;
+import software.amazon.awscdk.AppProps;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The sandbox of a small catalog with two modes, one a prefix of the other.
+ */
+public class LocalSandboxTest {
+
+    private static LocalSandbox sandbox;
+
+    @BeforeAll
+    static void createSandbox() {
+        var app = new App(AppProps.builder()
+                .context(Map.of("services", List.of(
+                        Map.of("mode", "send", "containerName", "verstuurder", "priority", 1, "cpu", 512, "memory", 2048),
+                        Map.of("mode", "sendbulk", "containerName", "bulkverstuurder", "priority", 2, "port", 8081))))
+                .build());
+        sandbox = new LocalSandbox(app, "test-", EnvironmentProfile.builder().build());
+    }
+
+    @Test
+    public void composeServices() {
+        var compose = sandbox.createCompose();
+        for (var service : List.of("mongo", "localstack", "send", "sendbulk", "router")) {
+            assertTrue(compose.contains("\n  %s:\n".formatted(service)), "No compose service " + service);
+        }
+        assertTrue(compose.contains("image: \"verstuurder:latest\""));
+        // the cpu and memory of the task definition, the profile when the catalog does not set them
+        assertTrue(compose.contains("cpus: \"0.5\"\n          memory: \"2048M\""));
+        assertTrue(compose.contains("cpus: \"0.25\"\n          memory: \"1024M\""));
+        assertTrue(compose.contains("SPRING_PROFILES_INCLUDE: \"aws,sendbulk\""));
+        assertTrue(compose.contains("AWS_SNSTOPIC: \"arn:aws:sns:us-east-1:000000000000:test-sns-topic\""));
+        assertTrue(compose.contains("AWS_SQSQUEUE: \"sebas-CDK-message-queue\""));
+        assertTrue(compose.contains("SPRING_DATA_MONGODB_URI: \"mongodb://mongo:27017/?replicaSet=rs0\""));
+    }
+
+    @Test
+    public void routerRoutes() {
+        var config = sandbox.createRouterConfig();
+        assertTrue(config.contains("location ~ ^/send(/|$) {\n        set $send http://send:80;"));
+        assertTrue(config.contains("location ~ ^/sendbulk(/|$) {\n        set $sendbulk http://sendbulk:8081;"));
+        assertFalse(config.contains("location /send "), "/send would also take /sendbulk");
+        assertTrue(config.contains(AwsEcsService.NOT_FOUND_PAGE));
+        assertTrue(config.contains(AwsEcsService.LOADING_PAGE));
+    }
+
+    @Test
+    public void queueAndTopic() {
+        var script = sandbox.createLocalStackInit();
+        assertTrue(script.contains("awslocal sqs create-queue --queue-name 'sebas-CDK-message-queue'"));
+        assertTrue(script.contains("awslocal sns create-topic --name 'test-sns-topic'"));
+        assertTrue(script.contains("awslocal sns subscribe --topic-arn 'arn:aws:sns:us-east-1:000000000000:test-sns-topic' --protocol sqs "
+                + "--notification-endpoint 'arn:aws:sqs:us-east-1:000000000000:sebas-CDK-message-queue'"));
+        assertFalse(script.contains("kinesis"));
+    }
+}